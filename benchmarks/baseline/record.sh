@@ -0,0 +1,32 @@
+#!/bin/sh
+# Records the benchmarks on the original client, the root commit of the repository.
+#
+# baseline.patch adds the package-private seams the benchmarks need to the original
+# client (an Api constructor that skips the TLS probe, a GameSocket constructor that
+# takes an Api, and attaching a websocket listener directly) and the benchmark module
+# as it was when results/baseline.json was recorded.
+#
+# The original client is installed into the local Maven repository as
+# org.codegame:client:0.1.0, so the current client is installed again at the end.
+#
+# Usage: benchmarks/baseline/record.sh [results file]
+set -e
+
+root=$(cd "$(dirname "$0")/../.." && pwd)
+out=$(realpath -m "${1:-$root/benchmarks/results/baseline.json}")
+commit=$(git -C "$root" rev-list --max-parents=0 HEAD)
+tree=$(mktemp -d)
+
+cleanup() {
+	git -C "$root" worktree remove --force "$tree"
+	(cd "$root" && mvn -B -q install -DskipTests)
+}
+
+git -C "$root" worktree add --detach "$tree" "$commit"
+trap cleanup EXIT
+git -C "$tree" apply "$root/benchmarks/baseline/baseline.patch"
+(cd "$tree" && mvn -B -q install -DskipTests)
+cd "$tree/benchmarks"
+mvn -B -q package
+# The original client keeps sessions in the data directory of the user.
+env -u XDG_DATA_HOME java -jar target/benchmarks.jar -f 1 -wi 3 -w 1s -i 5 -r 1s -prof gc -rf json -rff "$out"
@@ -0,0 +1,51 @@
+package org.codegame.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the inbound path from a websocket text frame to the event
+ * callbacks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+	@Param({ "0", "1", "8" })
+	int listeners;
+
+	@Param({ "small", "large" })
+	String payload;
+
+	private FakeWebSocket websocket;
+	private WSClient client;
+	private String message;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		websocket = new FakeWebSocket();
+		var socket = Payloads.socket(websocket);
+		for (int i = 0; i < listeners; i++) {
+			socket.on("state", Payloads.State.class, (data) -> blackhole.consume(data));
+		}
+		// Registered for another event so that the lookup is not trivially empty.
+		socket.on("other", Payloads.State.class, (data) -> blackhole.consume(data));
+		client = socket.newListener();
+		client.onOpen(websocket);
+		message = Payloads.stateMessage(Payloads.units(payload));
+	}
+
+	@Benchmark
+	public Object onText() {
+		return client.onText(websocket, message, true);
+	}
+}
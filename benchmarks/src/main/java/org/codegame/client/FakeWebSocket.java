@@ -0,0 +1,71 @@
+package org.codegame.client;
+
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An in-process websocket that accepts every frame immediately without any
+ * network involved.
+ */
+class FakeWebSocket implements WebSocket {
+	private static final CompletableFuture<WebSocket> done = CompletableFuture.completedFuture(null);
+
+	long framesSent;
+	long charsSent;
+	long bytesSent;
+	long requested;
+
+	@Override
+	public CompletableFuture<WebSocket> sendText(CharSequence data, boolean last) {
+		framesSent++;
+		charsSent += data.length();
+		return done;
+	}
+
+	@Override
+	public CompletableFuture<WebSocket> sendBinary(ByteBuffer data, boolean last) {
+		framesSent++;
+		bytesSent += data.remaining();
+		return done;
+	}
+
+	@Override
+	public CompletableFuture<WebSocket> sendPing(ByteBuffer message) {
+		return done;
+	}
+
+	@Override
+	public CompletableFuture<WebSocket> sendPong(ByteBuffer message) {
+		return done;
+	}
+
+	@Override
+	public CompletableFuture<WebSocket> sendClose(int statusCode, String reason) {
+		return done;
+	}
+
+	@Override
+	public void request(long n) {
+		requested += n;
+	}
+
+	@Override
+	public String getSubprotocol() {
+		return "";
+	}
+
+	@Override
+	public boolean isOutputClosed() {
+		return false;
+	}
+
+	@Override
+	public boolean isInputClosed() {
+		return false;
+	}
+
+	@Override
+	public void abort() {
+	}
+}
@@ -0,0 +1,53 @@
+package org.codegame.client;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures a round trip of an event through the shared Gson instance.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonBenchmark {
+	@Param({ "small", "large" })
+	String payload;
+
+	private static final Type eventType = TypeToken
+			.getParameterized(GameSocket.Event.class, Payloads.State.class).getType();
+
+	private GameSocket.Event<Payloads.State> event;
+	private String message;
+
+	@Setup
+	public void setup() {
+		event = new GameSocket.Event<>("state", Payloads.state(Payloads.units(payload)));
+		message = Api.json().toJson(event, eventType);
+	}
+
+	@Benchmark
+	public String serialize() {
+		return Api.json().toJson(event, eventType);
+	}
+
+	@Benchmark
+	public GameSocket.Event<Payloads.State> deserialize() {
+		return Api.json().fromJson(message, eventType);
+	}
+
+	@Benchmark
+	public GameSocket.Event<Payloads.State> roundTrip() {
+		return Api.json().fromJson(Api.json().toJson(event, eventType), eventType);
+	}
+}
@@ -0,0 +1,82 @@
+package org.codegame.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Event and command payloads used by the benchmarks.
+ */
+class Payloads {
+	static class Unit {
+		@SerializedName("id")
+		String id;
+		@SerializedName("x")
+		int x;
+		@SerializedName("y")
+		int y;
+		@SerializedName("health")
+		int health;
+	}
+
+	static class State {
+		@SerializedName("tick")
+		long tick;
+		@SerializedName("units")
+		List<Unit> units;
+	}
+
+	static class MoveCmd {
+		@SerializedName("unit_id")
+		String unitId;
+		@SerializedName("x")
+		int x;
+		@SerializedName("y")
+		int y;
+	}
+
+	/**
+	 * @param units The number of units in the state. 1 results in a message of
+	 *              roughly 100 bytes, 1000 in a message of roughly 50 KB.
+	 */
+	static State state(int units) {
+		var state = new State();
+		state.tick = 42;
+		state.units = new ArrayList<>(units);
+		for (int i = 0; i < units; i++) {
+			var unit = new Unit();
+			unit.id = "unit-" + i;
+			unit.x = i % 64;
+			unit.y = i / 64;
+			unit.health = 100 - i % 100;
+			state.units.add(unit);
+		}
+		return state;
+	}
+
+	static String stateMessage(int units) {
+		return Api.json().toJson(new GameSocket.Event<>("state", state(units)));
+	}
+
+	static MoveCmd move() {
+		var cmd = new MoveCmd();
+		cmd.unitId = "unit-7";
+		cmd.x = 12;
+		cmd.y = 34;
+		return cmd;
+	}
+
+	static int units(String payload) {
+		return payload.equals("large") ? 1000 : 1;
+	}
+
+	/**
+	 * Creates a socket that is attached to a fake websocket instead of a server.
+	 */
+	static GameSocket socket(FakeWebSocket websocket) {
+		var socket = new GameSocket(new Api("localhost:8080", false), null);
+		socket.attach(websocket, new Session("localhost:8080", "bench", "game", "player", "secret"));
+		return socket;
+	}
+}
@@ -0,0 +1,64 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.codegame.client.fakeserver.FakeServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures a command and the event that answers it over a real websocket to an
+ * in-process fake server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoundTripBenchmark {
+	@Param({ "small", "large" })
+	String payload;
+
+	/**
+	 * The size of the frames the server splits events into, 0 for no
+	 * fragmentation.
+	 */
+	@Param({ "0", "4096" })
+	int fragmentSize;
+
+	private FakeServer server;
+	private GameSocket socket;
+	private Payloads.State command;
+	private volatile CompletableFuture<Payloads.State> reply;
+
+	@Setup
+	public void setup() throws IOException {
+		server = new FakeServer();
+		server.setFragmentSize(fragmentSize);
+		socket = new GameSocket(server.getURL());
+		socket.setSessionStore(null);
+		socket.join(server.createGame(), "benchmark");
+		socket.on("state", Payloads.State.class, (data) -> reply.complete(data));
+		command = Payloads.state(Payloads.units(payload));
+	}
+
+	@TearDown
+	public void tearDown() {
+		socket.close();
+		server.close();
+	}
+
+	@Benchmark
+	public Payloads.State roundTrip() {
+		reply = new CompletableFuture<>();
+		socket.send("state", command);
+		return reply.join();
+	}
+}
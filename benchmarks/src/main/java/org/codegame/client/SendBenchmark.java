@@ -0,0 +1,45 @@
+package org.codegame.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the serialization of outbound commands.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SendBenchmark {
+	@Param({ "small", "large" })
+	String payload;
+
+	private FakeWebSocket websocket;
+	private GameSocket socket;
+	private Object command;
+
+	@Setup
+	public void setup() {
+		websocket = new FakeWebSocket();
+		socket = Payloads.socket(websocket);
+		command = payload.equals("large") ? Payloads.state(1000) : Payloads.move();
+	}
+
+	@Benchmark
+	public long send() {
+		socket.send("command", command);
+		return websocket.framesSent;
+	}
+
+	@Benchmark
+	public Object sendAsync() {
+		return socket.sendAsync("command", command);
+	}
+}
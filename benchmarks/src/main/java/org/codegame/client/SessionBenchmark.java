@@ -0,0 +1,75 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures persisting and loading sessions. The sessions are stored in a
+ * temporary directory, so the data directory of the user is never touched.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SessionBenchmark {
+	private static final String gameURL = "benchmarks.code-game.invalid";
+	private static final String username = "jmh";
+
+	private Path dir;
+	private FileSessionStore store;
+	private Session session;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("codegame-benchmarks");
+		store = new FileSessionStore(dir.resolve("sessions.json"));
+		session = new Session(gameURL, username, "game", "player", "secret");
+		store.save(session);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		store.close();
+		try (var paths = Files.walk(dir)) {
+			for (var path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+				Files.delete(path);
+		}
+	}
+
+	/**
+	 * Only updates the store in memory, the file is written later in the
+	 * background.
+	 */
+	@Benchmark
+	public Session save() throws IOException {
+		store.save(session);
+		return session;
+	}
+
+	/**
+	 * Saves and writes the file right away, like every save of the original
+	 * client did. This is the figure to compare with the save of the baseline.
+	 */
+	@Benchmark
+	public Session saveAndFlush() throws IOException {
+		store.save(session);
+		store.flush();
+		return session;
+	}
+
+	@Benchmark
+	public Session load() throws IOException {
+		return store.load(gameURL, username);
+	}
+}
@@ -0,0 +1,91 @@
+package org.codegame.client.fakeserver;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Describes a stream of events that the {@link FakeServer} sends to every
+ * connection. Each event looks like
+ * {@code {"name":"tick","data":{"seq":1,"sent_at":123,"payload":"xx…"}}} where
+ * {@code sent_at} is the {@link System#nanoTime()} of the server when the event
+ * was sent, so it can only be compared in the same process.
+ */
+public class EventGenerator {
+	private String eventName = "tick";
+	private double rate = 100;
+	private int payloadSize = 64;
+	private int burst = 1;
+
+	private String payload;
+	private long seq;
+
+	/**
+	 * @param eventName The name of the events. Defaults to {@code tick}.
+	 */
+	public void setEventName(String eventName) {
+		this.eventName = eventName;
+	}
+
+	/**
+	 * @param rate The number of events per second that every connection
+	 *             receives. Defaults to 100.
+	 */
+	public void setRate(double rate) {
+		if (rate <= 0)
+			throw new IllegalArgumentException("The rate must be positive.");
+		this.rate = rate;
+	}
+
+	/**
+	 * @param payloadSize The number of characters of the payload of each event.
+	 *                    Defaults to 64.
+	 */
+	public void setPayloadSize(int payloadSize) {
+		this.payloadSize = payloadSize;
+		this.payload = null;
+	}
+
+	/**
+	 * Sends events in bursts that are sent back to back. The rate stays the same
+	 * on average, so larger bursts mean longer pauses between them.
+	 *
+	 * @param burst The number of events per burst. Defaults to 1.
+	 */
+	public void setBurst(int burst) {
+		if (burst < 1)
+			throw new IllegalArgumentException("The burst must be at least 1.");
+		this.burst = burst;
+	}
+
+	public String getEventName() {
+		return eventName;
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+	public int getPayloadSize() {
+		return payloadSize;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * @return The time between two bursts in nanoseconds.
+	 */
+	long period() {
+		return Math.max(1, (long) (burst * 1_000_000_000L / rate));
+	}
+
+	/**
+	 * Encodes the next event once, so it can be written to every connection.
+	 */
+	byte[] next() {
+		if (payload == null)
+			payload = "x".repeat(payloadSize);
+		return ("{\"name\":\"" + eventName + "\",\"data\":{\"seq\":" + (++seq) + ",\"sent_at\":" + System.nanoTime()
+				+ ",\"payload\":\"" + payload + "\"}}").getBytes(StandardCharsets.UTF_8);
+	}
+}
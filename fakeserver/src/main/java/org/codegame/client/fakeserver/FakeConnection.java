@@ -0,0 +1,306 @@
+package org.codegame.client.fakeserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * A websocket connection of a player or spectator to the {@link FakeServer}.
+ */
+public class FakeConnection {
+	private static final int OPCODE_CONTINUATION = 0x0;
+	private static final int OPCODE_TEXT = 0x1;
+	private static final int OPCODE_BINARY = 0x2;
+	private static final int OPCODE_CLOSE = 0x8;
+	private static final int OPCODE_PING = 0x9;
+	private static final int OPCODE_PONG = 0xA;
+
+	private static final int generatedQueueCapacity = 1024;
+	private static final byte[] stop = new byte[0];
+
+	private final FakeServer server;
+	private final String gameId;
+	private final String playerId;
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+	private final byte[] header = new byte[10];
+	// Generated events are written by the thread of this connection, so a slow
+	// client cannot delay the events of the others.
+	private final BlockingQueue<byte[]> generated = new ArrayBlockingQueue<>(generatedQueueCapacity);
+	private final AtomicLong droppedEvents = new AtomicLong();
+	private volatile boolean closed;
+
+	FakeConnection(FakeServer server, String gameId, String playerId, Socket socket, InputStream in,
+			OutputStream out) {
+		this.server = server;
+		this.gameId = gameId;
+		this.playerId = playerId;
+		this.socket = socket;
+		this.in = in;
+		this.out = out;
+	}
+
+	/**
+	 * Sends an event to the client.
+	 *
+	 * @param name The name of the event.
+	 * @param data The data of the event or null.
+	 */
+	public void sendEvent(String name, JsonElement data) {
+		var event = new JsonObject();
+		event.addProperty("name", name);
+		event.add("data", data);
+		sendText(event.toString());
+	}
+
+	/**
+	 * Sends a text message to the client. It is split into fragments when the
+	 * server has a fragment size. Messages to a closed connection are dropped.
+	 */
+	public void sendText(String message) {
+		send(message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Queues a generated event without waiting for the connection. The event is
+	 * dropped when 1024 events are already waiting.
+	 */
+	void sendGenerated(byte[] message) {
+		if (closed)
+			return;
+		if (!generated.offer(message))
+			droppedEvents.incrementAndGet();
+	}
+
+	/**
+	 * Writes generated events until the connection is closed.
+	 */
+	void writeGenerated() {
+		try {
+			while (!closed) {
+				var message = generated.take();
+				if (message == stop)
+					return;
+				send(message);
+			}
+		} catch (InterruptedException e) {
+			// The server is shut down.
+		}
+	}
+
+	void send(byte[] message) {
+		if (closed)
+			return;
+		int fragmentSize = server.getFragmentSize();
+		try {
+			synchronized (out) {
+				if (fragmentSize <= 0 || message.length <= fragmentSize) {
+					writeFrame(true, OPCODE_TEXT, message, 0, message.length);
+				} else {
+					for (int offset = 0; offset < message.length; offset += fragmentSize) {
+						int length = Math.min(fragmentSize, message.length - offset);
+						writeFrame(offset + length == message.length, offset == 0 ? OPCODE_TEXT : OPCODE_CONTINUATION,
+								message, offset, length);
+					}
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			abort();
+		}
+	}
+
+	/**
+	 * Sends a close frame and closes the connection.
+	 *
+	 * @param statusCode The close code, e.g. 1000 for a normal closure.
+	 */
+	public void close(int statusCode) {
+		if (closed)
+			return;
+		try {
+			synchronized (out) {
+				writeFrame(true, OPCODE_CLOSE, new byte[] { (byte) (statusCode >> 8), (byte) statusCode }, 0, 2);
+				out.flush();
+			}
+		} catch (IOException e) {
+			// The connection is closed below anyway.
+		}
+		abort();
+	}
+
+	/**
+	 * Closes the connection without a close frame, like a dropped network
+	 * connection.
+	 */
+	public void abort() {
+		closed = true;
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Nothing left to clean up.
+		}
+		generated.clear();
+		generated.offer(stop);
+	}
+
+	/**
+	 * @return The ID of the game.
+	 */
+	public String getGameId() {
+		return gameId;
+	}
+
+	/**
+	 * @return The ID of the player or an empty string for spectators.
+	 */
+	public String getPlayerId() {
+		return playerId;
+	}
+
+	/**
+	 * @return The number of generated events that were dropped because the
+	 *         client did not read them fast enough.
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents.get();
+	}
+
+	/**
+	 * @return Whether the connection is closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Reads frames until the connection is closed.
+	 */
+	void read() throws IOException {
+		var message = new ByteArrayOutputStream();
+		var messageOpcode = OPCODE_TEXT;
+		while (!closed) {
+			int first = in.read();
+			if (first < 0)
+				return;
+			boolean fin = (first & 0x80) != 0;
+			int opcode = first & 0x0F;
+			int second = readByte();
+			long length = second & 0x7F;
+			if (length == 126)
+				length = (readByte() << 8) | readByte();
+			else if (length == 127)
+				length = readLong();
+			if (length < 0 || length > server.getMaxMessageSize() - message.size()) {
+				close(1009);
+				return;
+			}
+			byte[] mask = (second & 0x80) != 0 ? readBytes(4) : null;
+			byte[] payload = readBytes((int) length);
+			if (mask != null) {
+				for (int i = 0; i < payload.length; i++)
+					payload[i] ^= mask[i & 3];
+			}
+
+			switch (opcode) {
+				case OPCODE_CLOSE:
+					close(payload.length >= 2 ? ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF) : 1000);
+					return;
+				case OPCODE_PING:
+					synchronized (out) {
+						writeFrame(true, OPCODE_PONG, payload, 0, payload.length);
+						out.flush();
+					}
+					break;
+				case OPCODE_PONG:
+					break;
+				case OPCODE_TEXT:
+				case OPCODE_BINARY:
+				case OPCODE_CONTINUATION:
+					if (opcode != OPCODE_CONTINUATION)
+						messageOpcode = opcode;
+					message.write(payload);
+					if (fin) {
+						if (messageOpcode == OPCODE_TEXT)
+							onCommand(new String(message.toByteArray(), StandardCharsets.UTF_8));
+						message.reset();
+					}
+					break;
+				default:
+					close(1002);
+					return;
+			}
+		}
+	}
+
+	private void onCommand(String message) {
+		String name;
+		JsonElement data;
+		try {
+			var command = JsonParser.parseString(message).getAsJsonObject();
+			name = command.get("name").getAsString();
+			data = command.get("data");
+		} catch (RuntimeException e) {
+			System.err.println("ERROR: Received an invalid command: " + e.getMessage());
+			return;
+		}
+		try {
+			server.getCommandHandler().onCommand(this, name, data);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void writeFrame(boolean fin, int opcode, byte[] payload, int offset, int length) throws IOException {
+		int headerLength = 2;
+		header[0] = (byte) ((fin ? 0x80 : 0) | opcode);
+		if (length < 126) {
+			header[1] = (byte) length;
+		} else if (length <= 0xFFFF) {
+			header[1] = 126;
+			header[2] = (byte) (length >> 8);
+			header[3] = (byte) length;
+			headerLength = 4;
+		} else {
+			header[1] = 127;
+			for (int i = 0; i < 8; i++)
+				header[2 + i] = (byte) ((long) length >> (56 - 8 * i));
+			headerLength = 10;
+		}
+		out.write(header, 0, headerLength);
+		out.write(payload, offset, length);
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b < 0)
+			throw new EOFException();
+		return b;
+	}
+
+	private long readLong() throws IOException {
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value = (value << 8) | readByte();
+		return value;
+	}
+
+	private byte[] readBytes(int length) throws IOException {
+		var bytes = in.readNBytes(length);
+		if (bytes.length < length)
+			throw new EOFException();
+		return bytes;
+	}
+}
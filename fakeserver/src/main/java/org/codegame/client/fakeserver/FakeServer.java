@@ -0,0 +1,584 @@
+package org.codegame.client.fakeserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * A minimal CodeGame server for load and latency tests of the client. It
+ * implements the HTTP API and the websocket endpoints of a CodeGame server,
+ * answers every command with an event and can send generated events to all
+ * connections. There is no game logic.
+ *
+ * Only JSON messages are supported. The server binds to the loopback address
+ * and accepts connections as soon as it is created.
+ */
+public class FakeServer implements AutoCloseable {
+	/**
+	 * Handles a command that was received from a player.
+	 */
+	@FunctionalInterface
+	public interface CommandHandler {
+		/**
+		 * Called on the thread of the connection that sent the command.
+		 *
+		 * @param data The data of the command or null.
+		 */
+		void onCommand(FakeConnection connection, String name, JsonElement data);
+	}
+
+	/**
+	 * Answers every command with an event that has the same name and data.
+	 */
+	public static final CommandHandler ECHO = (connection, name, data) -> connection.sendEvent(name, data);
+
+	private static final String cgVersion = "0.8";
+	private static final String websocketGUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+	private static class Player {
+		final String username;
+		final String secret;
+
+		Player(String username, String secret) {
+			this.username = username;
+			this.secret = secret;
+		}
+	}
+
+	private static class Game {
+		final boolean isPublic;
+		final String joinSecret;
+		final JsonElement config;
+		final Map<String, Player> players = new ConcurrentHashMap<>();
+
+		Game(boolean isPublic, String joinSecret, JsonElement config) {
+			this.isPublic = isPublic;
+			this.joinSecret = joinSecret;
+			this.config = config;
+		}
+	}
+
+	private final ServerSocket serverSocket;
+	private final ExecutorService threads;
+	private final ScheduledExecutorService scheduler;
+	private final Map<String, Game> games = new ConcurrentHashMap<>();
+	private final Set<FakeConnection> connections = ConcurrentHashMap.newKeySet();
+
+	private volatile String name = "fake";
+	private volatile CommandHandler commandHandler = ECHO;
+	private volatile int fragmentSize;
+	private volatile int maxMessageSize = 16 * 1024 * 1024;
+	private ScheduledFuture<?> generator;
+
+	/**
+	 * Creates a server on a free port.
+	 */
+	public FakeServer() throws IOException {
+		this(0);
+	}
+
+	/**
+	 * @param port The port to listen on or 0 for any free port.
+	 */
+	public FakeServer(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 4096, InetAddress.getLoopbackAddress());
+		var threadCount = new AtomicInteger();
+		threads = Executors.newCachedThreadPool((runnable) -> {
+			var thread = new Thread(runnable, "fake-server-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+			var thread = new Thread(runnable, "fake-server-events");
+			thread.setDaemon(true);
+			return thread;
+		});
+		threads.execute(this::accept);
+	}
+
+	/**
+	 * Runs a server from the command line until the process is stopped.
+	 *
+	 * <pre>
+	 * java -jar client-fakeserver-standalone.jar [--port 8080] [--rate 100] [--payload 64] [--burst 1] [--fragment 0] [--event tick]
+	 * </pre>
+	 *
+	 * A rate of 0 sends no events.
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = 8080;
+		int fragment = 0;
+		var generator = new EventGenerator();
+		double rate = 100;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			var value = args[i + 1];
+			switch (args[i]) {
+				case "--port":
+					port = Integer.parseInt(value);
+					break;
+				case "--rate":
+					rate = Double.parseDouble(value);
+					break;
+				case "--payload":
+					generator.setPayloadSize(Integer.parseInt(value));
+					break;
+				case "--burst":
+					generator.setBurst(Integer.parseInt(value));
+					break;
+				case "--fragment":
+					fragment = Integer.parseInt(value);
+					break;
+				case "--event":
+					generator.setEventName(value);
+					break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					System.exit(1);
+			}
+		}
+
+		var server = new FakeServer(port);
+		server.setFragmentSize(fragment);
+		if (rate > 0) {
+			generator.setRate(rate);
+			server.setEventGenerator(generator);
+		}
+		System.out.println("Listening on " + server.getURL());
+		Thread.currentThread().join();
+	}
+
+	/**
+	 * Creates a public game without going through the HTTP API.
+	 *
+	 * @return The ID of the game.
+	 */
+	public String createGame() {
+		var id = UUID.randomUUID().toString();
+		games.put(id, new Game(true, "", null));
+		return id;
+	}
+
+	/**
+	 * Sends the generated events to all connections, replacing the previous
+	 * generator. Every connection writes its events on its own thread, and
+	 * events for a client that falls behind by more than 1024 events are
+	 * dropped, see {@link FakeConnection#getDroppedEvents()}.
+	 *
+	 * @param generator The generator or null to stop sending events.
+	 */
+	public synchronized void setEventGenerator(EventGenerator generator) {
+		if (this.generator != null)
+			this.generator.cancel(false);
+		this.generator = null;
+		if (generator == null)
+			return;
+		// A fixed rate catches up after a delayed burst, so the average rate is
+		// kept even when the scheduler cannot keep up with short periods.
+		this.generator = scheduler.scheduleAtFixedRate(() -> {
+			for (int i = 0; i < generator.getBurst(); i++) {
+				var event = generator.next();
+				for (var connection : connections)
+					connection.sendGenerated(event);
+			}
+		}, 0, generator.period(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param commandHandler Handles all commands from now on. Defaults to
+	 *                       {@link #ECHO}.
+	 */
+	public void setCommandHandler(CommandHandler commandHandler) {
+		this.commandHandler = commandHandler;
+	}
+
+	/**
+	 * Splits text messages into continuation frames to exercise the reassembly
+	 * of fragmented messages in the client.
+	 *
+	 * @param fragmentSize The maximum number of bytes per frame or 0 to send every
+	 *                     message in a single frame.
+	 */
+	public void setFragmentSize(int fragmentSize) {
+		this.fragmentSize = fragmentSize;
+	}
+
+	/**
+	 * @param maxMessageSize The maximum number of bytes of a received message.
+	 *                       Larger messages close the connection with 1009.
+	 *                       Defaults to 16 MiB.
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	/**
+	 * @param name The name of the game in {@code /api/info}.
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return The URL of the server without any protocol, e.g.
+	 *         {@code localhost:43127}.
+	 */
+	public String getURL() {
+		return "localhost:" + getPort();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return The open websocket connections.
+	 */
+	public Set<FakeConnection> getConnections() {
+		return Collections.unmodifiableSet(connections);
+	}
+
+	CommandHandler getCommandHandler() {
+		return commandHandler;
+	}
+
+	int getFragmentSize() {
+		return fragmentSize;
+	}
+
+	int getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	/**
+	 * Stops the server and closes all connections without a close frame.
+	 */
+	@Override
+	public void close() {
+		setEventGenerator(null);
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// The server is shut down anyway.
+		}
+		for (var connection : connections)
+			connection.abort();
+		scheduler.shutdownNow();
+		threads.shutdownNow();
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				var socket = serverSocket.accept();
+				threads.execute(() -> handle(socket));
+			} catch (IOException e) {
+				// The server socket was closed.
+			}
+		}
+	}
+
+	private void handle(Socket socket) {
+		try (socket) {
+			socket.setTcpNoDelay(true);
+			var in = new BufferedInputStream(socket.getInputStream());
+			var out = new BufferedOutputStream(socket.getOutputStream());
+			// Requests are answered in order on the same connection until the client
+			// closes it or upgrades it to a websocket.
+			while (true) {
+				var request = Request.read(in);
+				if (request == null)
+					return;
+				if ("websocket".equalsIgnoreCase(request.headers.get("upgrade"))) {
+					upgrade(request, socket, in, out);
+					return;
+				}
+				try {
+					respond(request, out);
+				} catch (RuntimeException e) {
+					// Most likely a request body with missing or invalid fields.
+					write(out, 400, null);
+				}
+			}
+		} catch (IOException e) {
+			// The client closed the connection.
+		}
+	}
+
+	private void respond(Request request, OutputStream out) throws IOException {
+		var path = request.path.split("/");
+		// ["", "api", "games", "{game_id}", "players", "{player_id}"]
+		if (path.length < 3 || !path[1].equals("api")) {
+			write(out, 404, null);
+			return;
+		}
+
+		if (path.length == 3 && path[2].equals("info") && request.method.equals("GET")) {
+			var info = new JsonObject();
+			info.addProperty("name", name);
+			info.addProperty("cg_version", cgVersion);
+			info.addProperty("display_name", name);
+			info.addProperty("description", "A fake CodeGame server.");
+			info.addProperty("version", "0.0.0");
+			info.addProperty("repository_url", "");
+			write(out, 200, info);
+			return;
+		}
+
+		if (!path[2].equals("games")) {
+			write(out, 404, null);
+			return;
+		}
+
+		if (path.length == 3 && request.method.equals("GET")) {
+			int privateGames = 0;
+			var publicGames = new JsonArray();
+			for (var entry : games.entrySet()) {
+				var game = entry.getValue();
+				if (!game.isPublic) {
+					privateGames++;
+					continue;
+				}
+				var summary = new JsonObject();
+				summary.addProperty("id", entry.getKey());
+				summary.addProperty("players", game.players.size());
+				summary.addProperty("protected", !game.joinSecret.isEmpty());
+				publicGames.add(summary);
+			}
+			var response = new JsonObject();
+			response.addProperty("private", privateGames);
+			response.add("public", publicGames);
+			write(out, 200, response);
+			return;
+		}
+
+		if (path.length == 3 && request.method.equals("POST")) {
+			var body = request.json();
+			var makePublic = body.has("public") && body.get("public").getAsBoolean();
+			var protect = body.has("protected") && body.get("protected").getAsBoolean();
+			var id = UUID.randomUUID().toString();
+			var game = new Game(makePublic, protect ? UUID.randomUUID().toString() : "", body.get("config"));
+			games.put(id, game);
+			var response = new JsonObject();
+			response.addProperty("game_id", id);
+			response.addProperty("join_secret", game.joinSecret);
+			write(out, 201, response);
+			return;
+		}
+
+		var game = path.length > 3 ? games.get(path[3]) : null;
+		if (game == null) {
+			write(out, 404, null);
+			return;
+		}
+
+		if (path.length == 4 && request.method.equals("GET")) {
+			var response = new JsonObject();
+			response.add("config", game.config);
+			write(out, 200, response);
+		} else if (path.length == 5 && path[4].equals("players") && request.method.equals("GET")) {
+			var response = new JsonObject();
+			game.players.forEach((id, player) -> response.addProperty(id, player.username));
+			write(out, 200, response);
+		} else if (path.length == 5 && path[4].equals("players") && request.method.equals("POST")) {
+			var body = request.json();
+			var joinSecret = body.has("join_secret") ? body.get("join_secret").getAsString() : "";
+			if (!game.joinSecret.isEmpty() && !game.joinSecret.equals(joinSecret)) {
+				write(out, 403, null);
+				return;
+			}
+			var id = UUID.randomUUID().toString();
+			var player = new Player(body.get("username").getAsString(), UUID.randomUUID().toString());
+			game.players.put(id, player);
+			var response = new JsonObject();
+			response.addProperty("player_id", id);
+			response.addProperty("player_secret", player.secret);
+			write(out, 201, response);
+		} else if (path.length == 6 && path[4].equals("players") && request.method.equals("GET")) {
+			var player = game.players.get(path[5]);
+			if (player == null) {
+				write(out, 404, null);
+				return;
+			}
+			var response = new JsonObject();
+			response.addProperty("username", player.username);
+			write(out, 200, response);
+		} else {
+			write(out, 404, null);
+		}
+	}
+
+	private void upgrade(Request request, Socket socket, InputStream in, OutputStream out) throws IOException {
+		var path = request.path.split("/");
+		var game = path.length > 4 && path[1].equals("api") && path[2].equals("games") ? games.get(path[3]) : null;
+		String playerId;
+		if (game != null && path.length == 5 && path[4].equals("spectate")) {
+			playerId = "";
+		} else if (game != null && path.length == 7 && path[4].equals("players") && path[6].equals("connect")) {
+			playerId = path[5];
+			var player = game.players.get(playerId);
+			if (player == null) {
+				write(out, 404, null);
+				return;
+			}
+			if (!player.secret.equals(request.query.get("player_secret"))) {
+				write(out, 401, null);
+				return;
+			}
+		} else {
+			write(out, 404, null);
+			return;
+		}
+
+		var key = request.headers.get("sec-websocket-key");
+		if (key == null) {
+			write(out, 400, null);
+			return;
+		}
+		var response = "HTTP/1.1 101 Switching Protocols\r\n"
+				+ "Upgrade: websocket\r\n"
+				+ "Connection: Upgrade\r\n"
+				+ "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n";
+		out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+		out.flush();
+
+		var connection = new FakeConnection(this, path[3], playerId, socket, in, out);
+		connections.add(connection);
+		threads.execute(connection::writeGenerated);
+		try {
+			connection.read();
+		} finally {
+			connections.remove(connection);
+			connection.abort();
+		}
+	}
+
+	private static String acceptKey(String key) {
+		try {
+			var sha1 = MessageDigest.getInstance("SHA-1");
+			return Base64.getEncoder()
+					.encodeToString(sha1.digest((key + websocketGUID).getBytes(StandardCharsets.ISO_8859_1)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void write(OutputStream out, int statusCode, JsonElement body) throws IOException {
+		var content = body == null ? new byte[0] : body.toString().getBytes(StandardCharsets.UTF_8);
+		var head = "HTTP/1.1 " + statusCode + " " + reason(statusCode) + "\r\n"
+				+ "Content-Type: application/json\r\n"
+				+ "Content-Length: " + content.length + "\r\n\r\n";
+		out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+		out.write(content);
+		out.flush();
+	}
+
+	private static String reason(int statusCode) {
+		switch (statusCode) {
+			case 200:
+				return "OK";
+			case 201:
+				return "Created";
+			case 400:
+				return "Bad Request";
+			case 401:
+				return "Unauthorized";
+			case 403:
+				return "Forbidden";
+			default:
+				return "Not Found";
+		}
+	}
+
+	private static class Request {
+		String method;
+		String path;
+		final Map<String, String> query = new HashMap<>();
+		final Map<String, String> headers = new HashMap<>();
+		byte[] body;
+
+		/**
+		 * @return The next request or null when the client closed the connection.
+		 */
+		static Request read(InputStream in) throws IOException {
+			var line = readLine(in);
+			if (line == null)
+				return null;
+			var parts = line.split(" ");
+			if (parts.length < 2)
+				throw new IOException("Invalid request line: " + line);
+			var request = new Request();
+			request.method = parts[0];
+			var target = parts[1];
+			var queryStart = target.indexOf('?');
+			request.path = queryStart < 0 ? target : target.substring(0, queryStart);
+			if (queryStart >= 0) {
+				for (var pair : target.substring(queryStart + 1).split("&")) {
+					var separator = pair.indexOf('=');
+					if (separator > 0)
+						request.query.put(pair.substring(0, separator), pair.substring(separator + 1));
+				}
+			}
+
+			while (true) {
+				line = readLine(in);
+				if (line == null)
+					return null;
+				if (line.isEmpty())
+					break;
+				var separator = line.indexOf(':');
+				if (separator > 0)
+					request.headers.put(line.substring(0, separator).trim().toLowerCase(),
+							line.substring(separator + 1).trim());
+			}
+
+			var contentLength = request.headers.get("content-length");
+			request.body = contentLength == null ? new byte[0] : in.readNBytes(Integer.parseInt(contentLength));
+			return request;
+		}
+
+		JsonObject json() {
+			if (body.length == 0)
+				return new JsonObject();
+			return JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject();
+		}
+
+		private static String readLine(InputStream in) throws IOException {
+			var line = new ByteArrayOutputStream();
+			int b;
+			while ((b = in.read()) != '\n') {
+				if (b < 0)
+					return line.size() == 0 ? null : line.toString(StandardCharsets.ISO_8859_1);
+				if (b != '\r')
+					line.write(b);
+			}
+			return line.toString(StandardCharsets.ISO_8859_1);
+		}
+	}
+}
@@ -0,0 +1,382 @@
+package org.codegame.client.loadgen;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.codegame.client.Api;
+import org.codegame.client.Backpressure;
+import org.codegame.client.GameClientPool;
+import org.codegame.client.GameSocket;
+
+/**
+ * Connects many players to a game server and measures the time from each
+ * command to the event that answers it.
+ *
+ * Responses are matched to commands in the order in which they were sent, so
+ * the server has to answer every command of a player with exactly one response
+ * event, like the echo of the fake server. Latencies are measured from the time
+ * at which a command was meant to be sent, so a stalled sender counts against
+ * the server instead of hiding its delays.
+ */
+public class LoadGenerator {
+	/**
+	 * The data of every command. The payload is created once and shared by all
+	 * commands.
+	 */
+	static class Command {
+		String payload;
+	}
+
+	private class Player {
+		final GameSocket socket;
+		final long period;
+		final ConcurrentLinkedDeque<Long> sentAt = new ConcurrentLinkedDeque<>();
+		// The time at which the next command is due. Only used by the scheduler.
+		long intended;
+
+		Player(GameSocket socket, long period, long first) {
+			this.socket = socket;
+			this.period = period;
+			this.intended = first;
+		}
+
+		void onResponse() {
+			var sent = sentAt.poll();
+			if (sent != null)
+				latency.recordValue((System.nanoTime() - sent) / 1000);
+		}
+
+		void sendCommand() {
+			long due = intended;
+			intended += period;
+			if (sentAt.size() >= maxOutstanding) {
+				// The server is not keeping up, sending more would only grow the queue.
+				skipped.incrementAndGet();
+				return;
+			}
+			sentAt.add(due);
+			try {
+				socket.sendAsync(options.command, command).whenComplete((result, e) -> {
+					if (e != null) {
+						// The queue is full or the connection was lost.
+						sentAt.remove(due);
+						failedCommands.incrementAndGet();
+					}
+				});
+			} catch (RuntimeException e) {
+				// The socket is closed.
+				sentAt.remove(due);
+			}
+		}
+	}
+
+	private static final int maxOutstanding = 1000;
+
+	private final Options options;
+	private final Command command = new Command();
+	private final LoadMetrics metrics = new LoadMetrics();
+	private final Recorder latency = new Recorder(3);
+	private final Recorder joinLatency = new Recorder(3);
+	private final Histogram totalLatency = new Histogram(3);
+	private final Histogram totalJoinLatency = new Histogram(3);
+	private final AtomicInteger nextPlayer = new AtomicInteger();
+	private final AtomicInteger joined = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicInteger failedCommands = new AtomicInteger();
+	private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, (runnable) -> {
+		var thread = new Thread(runnable, "loadgen-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final List<GameClientPool> pools = new ArrayList<>();
+	private volatile ScheduledFuture<?> joining;
+
+	private final ResourceUsage usage = new ResourceUsage();
+	private HistogramLogWriter histogramLog;
+	private long lastEvents;
+	private long lastCommands;
+
+	LoadGenerator(Options options) {
+		this.options = options;
+		command.payload = "x".repeat(options.payloadSize);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options;
+		try {
+			options = Options.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(Options.usage);
+			System.exit(2);
+			return;
+		}
+		new LoadGenerator(options).run();
+		System.exit(0);
+	}
+
+	void run() throws Exception {
+		var executor = options.threads > 0 ? Executors.newFixedThreadPool(options.threads) : virtualThreads();
+		System.out.println("Callbacks run on " + (options.threads > 0 ? options.threads + " threads"
+				: executor != null ? "virtual threads" : "one thread per processor"));
+		for (int i = 0; i < options.httpClients; i++) {
+			var pool = new GameClientPool(new Api(options.url, HttpClient.newHttpClient()), executor);
+			pool.setMetrics(metrics);
+			// A full queue must not block the scheduler that sends for all players.
+			pool.setOutboundQueue(64, Backpressure.FAIL);
+			// Thousands of short-lived players should not end up in the session file.
+			pool.setSessionStore(null);
+			pools.add(pool);
+		}
+		var gameId = options.gameId;
+		if (gameId == null) {
+			gameId = new GameSocket(pools.get(0).getApi()).createGame(false, false, null).id;
+			System.out.println("Created game " + gameId);
+		}
+		if (options.histogramLog != null)
+			histogramLog = openHistogramLog(options.histogramLog);
+
+		long start = System.nanoTime();
+		latency.reset();
+		var game = gameId;
+		joining = scheduler.scheduleAtFixedRate(() -> join(game), 0, (long) (1_000_000_000L / options.joinRate),
+				TimeUnit.NANOSECONDS);
+
+		long interval = options.interval.toNanos();
+		long end = start + options.duration.toNanos();
+		long nextReport = start;
+		usage.reset();
+		do {
+			nextReport = Math.min(nextReport + interval, end);
+			long sleep = nextReport - System.nanoTime();
+			if (sleep > 0)
+				TimeUnit.NANOSECONDS.sleep(sleep);
+			report(Duration.ofNanos(System.nanoTime() - start));
+		} while (nextReport < end);
+
+		joining.cancel(false);
+		synchronized (tasks) {
+			for (var task : tasks)
+				task.cancel(false);
+		}
+		summary(Duration.ofNanos(System.nanoTime() - start));
+		for (var pool : pools)
+			pool.close();
+		if (executor != null)
+			executor.shutdown();
+		if (histogramLog != null)
+			histogramLog.close();
+	}
+
+	private void join(String gameId) {
+		int index = nextPlayer.getAndIncrement();
+		if (index >= options.players) {
+			joining.cancel(false);
+			return;
+		}
+		long start = System.nanoTime();
+		var pool = pools.get(index % pools.size());
+		pool.joinAsync(gameId, "loadgen-" + index, options.joinSecret).whenComplete((socket, e) -> {
+			if (e != null) {
+				if (failed.incrementAndGet() <= 10)
+					System.err.println("ERROR: Player " + index + " failed to join: " + e.getMessage());
+				return;
+			}
+			joinLatency.recordValue((System.nanoTime() - start) / 1000);
+			joined.incrementAndGet();
+			long period = (long) (1_000_000_000L / options.commandRate);
+			// A random offset spreads the commands of all players over the period.
+			long offset = ThreadLocalRandom.current().nextLong(period);
+			var player = new Player(socket, period, System.nanoTime() + offset);
+			socket.subscribeRaw(options.response, (event) -> player.onResponse());
+			var task = scheduler.scheduleAtFixedRate(player::sendCommand, offset, period, TimeUnit.NANOSECONDS);
+			synchronized (tasks) {
+				tasks.add(task);
+			}
+		});
+	}
+
+	private void report(Duration elapsed) {
+		var histogram = latency.getIntervalHistogram();
+		totalLatency.add(histogram);
+		totalJoinLatency.add(joinLatency.getIntervalHistogram());
+		if (histogramLog != null)
+			histogramLog.outputIntervalHistogram(histogram);
+
+		long events = metrics.events.sum();
+		long commands = metrics.commands.sum();
+		var sample = usage.sample();
+		double seconds = sample.wallNanos / 1e9;
+		int connected = Math.max(1, connected());
+		System.out.printf("[%5.1fs] players %d/%d (%d failed)  events/s %,.0f  commands/s %,.0f  %s  cpu %.0f%%"
+				+ "  per player: cpu %.3f%% alloc %s/s%n",
+				elapsed.toMillis() / 1000.0, connected(), options.players, failed.get(),
+				(events - lastEvents) / seconds, (commands - lastCommands) / seconds, percentiles(histogram),
+				sample.cores() * 100, sample.cores() * 100 / connected, bytes(sample.allocatedBytes / seconds / connected));
+		if (sample.cores() > 0.8 * Runtime.getRuntime().availableProcessors())
+			System.out.println("  WARNING: The load generator uses more than 80% of all cores, so latencies include "
+					+ "client-side queuing.");
+		lastEvents = events;
+		lastCommands = commands;
+	}
+
+	private void summary(Duration elapsed) {
+		double seconds = elapsed.toNanos() / 1e9;
+		var total = usage.total();
+		int players = Math.max(1, joined.get());
+		System.out.println();
+		System.out.printf("Players:   %d joined, %d failed, join latency %s%n", joined.get(), failed.get(),
+				percentiles(totalJoinLatency));
+		System.out.printf("Events:    %,d (%,.0f/s, %s)%n", metrics.events.sum(), metrics.events.sum() / seconds,
+				bytes(metrics.eventBytes.sum()));
+		System.out.printf("Commands:  %,d (%,.0f/s), %,d skipped because %d were unanswered, %,d failed to send%n",
+				metrics.commands.sum(), metrics.commands.sum() / seconds, skipped.get(), maxOutstanding,
+				failedCommands.get());
+		System.out.printf("Latency:   %s over %,d responses%n", percentiles(totalLatency),
+				totalLatency.getTotalCount());
+		System.out.printf("Client:    cpu %.3f%% and alloc %s/s per player, %d HTTP errors, %d reconnects%n",
+				total.cores() * 100 / players, bytes(total.allocatedBytes / seconds / players),
+				metrics.httpErrors.sum(), metrics.reconnects.sum());
+	}
+
+	private int connected() {
+		int connected = 0;
+		for (var pool : pools)
+			connected += pool.size();
+		return connected;
+	}
+
+	private static String percentiles(Histogram histogram) {
+		if (histogram.getTotalCount() == 0)
+			return "no responses";
+		return String.format("p50 %.2fms p99 %.2fms p99.9 %.2fms max %.2fms",
+				histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+				histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0);
+	}
+
+	private static String bytes(double bytes) {
+		if (bytes >= 1024 * 1024)
+			return String.format("%.1fMB", bytes / 1024 / 1024);
+		if (bytes >= 1024)
+			return String.format("%.1fKB", bytes / 1024);
+		return String.format("%.0fB", bytes);
+	}
+
+	private static HistogramLogWriter openHistogramLog(String path) throws FileNotFoundException {
+		var writer = new HistogramLogWriter(new PrintStream(path));
+		writer.outputLogFormatVersion();
+		long now = System.currentTimeMillis();
+		writer.outputStartTime(now);
+		writer.setBaseTime(now);
+		writer.outputLegend();
+		return writer;
+	}
+
+	/**
+	 * @return An executor that starts a virtual thread per task or null before
+	 *         Java 21.
+	 */
+	private static ExecutorService virtualThreads() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Measures the CPU time and allocations of the whole process.
+	 */
+	static class ResourceUsage {
+		static class Sample {
+			final long wallNanos;
+			final long cpuNanos;
+			final long allocatedBytes;
+
+			Sample(long wallNanos, long cpuNanos, long allocatedBytes) {
+				this.wallNanos = Math.max(1, wallNanos);
+				this.cpuNanos = cpuNanos;
+				this.allocatedBytes = allocatedBytes;
+			}
+
+			/**
+			 * @return The number of cores that were busy on average.
+			 */
+			double cores() {
+				return (double) cpuNanos / wallNanos;
+			}
+		}
+
+		private long startWall;
+		private long startCpu;
+		private long startAllocated;
+		private long lastWall;
+		private long lastCpu;
+		private long lastAllocated;
+
+		void reset() {
+			startWall = lastWall = System.nanoTime();
+			startCpu = lastCpu = cpuNanos();
+			startAllocated = lastAllocated = allocatedBytes();
+		}
+
+		/**
+		 * @return The usage since the previous sample.
+		 */
+		Sample sample() {
+			long wall = System.nanoTime();
+			long cpu = cpuNanos();
+			long allocated = allocatedBytes();
+			// Allocations of threads that have ended are no longer counted, so the
+			// difference can be negative.
+			var sample = new Sample(wall - lastWall, cpu - lastCpu, Math.max(0, allocated - lastAllocated));
+			lastWall = wall;
+			lastCpu = cpu;
+			lastAllocated = allocated;
+			return sample;
+		}
+
+		/**
+		 * @return The usage since {@link #reset()}.
+		 */
+		Sample total() {
+			return new Sample(System.nanoTime() - startWall, cpuNanos() - startCpu,
+					Math.max(0, allocatedBytes() - startAllocated));
+		}
+
+		private static long cpuNanos() {
+			var bean = ManagementFactory.getOperatingSystemMXBean();
+			if (bean instanceof com.sun.management.OperatingSystemMXBean)
+				return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+			return 0;
+		}
+
+		private static long allocatedBytes() {
+			var bean = ManagementFactory.getThreadMXBean();
+			if (!(bean instanceof com.sun.management.ThreadMXBean))
+				return 0;
+			long total = 0;
+			for (long bytes : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(bean.getAllThreadIds()))
+				total += Math.max(0, bytes);
+			return total;
+		}
+	}
+}
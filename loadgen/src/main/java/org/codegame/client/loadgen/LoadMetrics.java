@@ -0,0 +1,38 @@
+package org.codegame.client.loadgen;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.codegame.client.Metrics;
+
+/**
+ * Counts the events, commands and reconnects of all players.
+ */
+class LoadMetrics implements Metrics {
+	final LongAdder events = new LongAdder();
+	final LongAdder eventBytes = new LongAdder();
+	final LongAdder commands = new LongAdder();
+	final LongAdder httpErrors = new LongAdder();
+	final LongAdder reconnects = new LongAdder();
+
+	@Override
+	public void eventReceived(String eventName, int size, long nanos) {
+		events.increment();
+		eventBytes.add(size);
+	}
+
+	@Override
+	public void commandSent(String commandName, int size) {
+		commands.increment();
+	}
+
+	@Override
+	public void httpRequest(String route, int statusCode, long nanos) {
+		if (statusCode < 200 || statusCode >= 300)
+			httpErrors.increment();
+	}
+
+	@Override
+	public void reconnected() {
+		reconnects.increment();
+	}
+}
@@ -0,0 +1,110 @@
+package org.codegame.client.loadgen;
+
+import java.time.Duration;
+
+/**
+ * The command line options of the load generator.
+ */
+class Options {
+	static final String usage = String.join("\n",
+			"Usage: java -jar loadgen.jar --url <url> [options]",
+			"",
+			"  --url <url>              The game server, e.g. localhost:8080.",
+			"  --game <id>              The game to join. A new private game is created when omitted.",
+			"  --join-secret <secret>   The join secret of a protected game.",
+			"  --players <n>            The number of players. Default: 100",
+			"  --join-rate <n>          Players that join per second. Default: 50",
+			"  --command-rate <n>       Commands per second and player. Default: 10",
+			"  --command <name>         The name of the command. Default: echo",
+			"  --response <name>        The event that answers the command. Default: the command name",
+			"  --payload <n>            Characters of payload in each command. Default: 64",
+			"  --duration <seconds>     How long commands are sent after the first player joined. Default: 30",
+			"  --interval <seconds>     Seconds between reports. Default: 5",
+			"  --threads <n>            Threads that run callbacks, 0 for virtual threads on Java 21+. Default: 0",
+			"  --http-clients <n>       HTTP clients the players are spread over. Each one has a single",
+			"                           selector thread for all of its websockets. Default: 1",
+			"  --histogram-log <file>   Writes every interval histogram to an HdrHistogram log.");
+
+	String url;
+	String gameId;
+	String joinSecret = "";
+	int players = 100;
+	double joinRate = 50;
+	double commandRate = 10;
+	String command = "echo";
+	String response;
+	int payloadSize = 64;
+	Duration duration = Duration.ofSeconds(30);
+	Duration interval = Duration.ofSeconds(5);
+	int threads;
+	int httpClients = 1;
+	String histogramLog;
+
+	/**
+	 * @throws IllegalArgumentException Thrown for unknown or invalid options.
+	 */
+	static Options parse(String[] args) {
+		var options = new Options();
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			var value = args[i + 1];
+			switch (args[i]) {
+				case "--url":
+					options.url = value;
+					break;
+				case "--game":
+					options.gameId = value;
+					break;
+				case "--join-secret":
+					options.joinSecret = value;
+					break;
+				case "--players":
+					options.players = Integer.parseInt(value);
+					break;
+				case "--join-rate":
+					options.joinRate = Double.parseDouble(value);
+					break;
+				case "--command-rate":
+					options.commandRate = Double.parseDouble(value);
+					break;
+				case "--command":
+					options.command = value;
+					break;
+				case "--response":
+					options.response = value;
+					break;
+				case "--payload":
+					options.payloadSize = Integer.parseInt(value);
+					break;
+				case "--duration":
+					options.duration = Duration.ofMillis((long) (Double.parseDouble(value) * 1000));
+					break;
+				case "--interval":
+					options.interval = Duration.ofMillis((long) (Double.parseDouble(value) * 1000));
+					break;
+				case "--threads":
+					options.threads = Integer.parseInt(value);
+					break;
+				case "--http-clients":
+					options.httpClients = Integer.parseInt(value);
+					break;
+				case "--histogram-log":
+					options.histogramLog = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		if (options.url == null)
+			throw new IllegalArgumentException("Missing --url.");
+		if (options.players < 1 || options.joinRate <= 0 || options.commandRate <= 0 || options.httpClients < 1)
+			throw new IllegalArgumentException(
+					"--players, --join-rate, --command-rate and --http-clients must be positive.");
+		if (options.interval.isZero() || options.interval.isNegative())
+			throw new IllegalArgumentException("--interval must be positive.");
+		if (options.response == null)
+			options.response = options.command;
+		return options;
+	}
+}
@@ -0,0 +1,148 @@
+package org.codegame.client.micrometer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import org.codegame.client.Metrics;
+
+/**
+ * Reports the metrics of a CodeGame client to a Micrometer registry.
+ *
+ * Meters are created once per event, command and endpoint and looked up
+ * without allocating afterwards. All meters are named {@code codegame.*} and
+ * tagged with the tags passed to the constructor, e.g. to tell several bots
+ * apart.
+ */
+public class MicrometerMetrics implements Metrics {
+	private final MeterRegistry registry;
+	private final Tags tags;
+
+	private final ConcurrentHashMap<String, EventMeters> events = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Counter> droppedEvents = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, CommandMeters> commands = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Timer>> requests = new ConcurrentHashMap<>();
+	private final Function<String, EventMeters> newEventMeters = this::newEventMeters;
+	private final Function<String, Counter> newDroppedCounter = this::newDroppedCounter;
+	private final Function<String, CommandMeters> newCommandMeters = this::newCommandMeters;
+	// The events in flight of all sockets that report to these metrics.
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Counter reconnectAttempts;
+	private final Counter reconnects;
+
+	private class EventMeters {
+		final Counter received;
+		final DistributionSummary bytes;
+		final Timer decode;
+		final Timer callbacks;
+
+		EventMeters(String eventName) {
+			var eventTags = tags.and("event", eventName);
+			received = Counter.builder("codegame.events.received").tags(eventTags)
+					.description("Received events").register(registry);
+			bytes = DistributionSummary.builder("codegame.events.size").tags(eventTags).baseUnit("bytes")
+					.description("Size of received messages, in characters for text messages").register(registry);
+			decode = Timer.builder("codegame.events.decode").tags(eventTags).publishPercentileHistogram()
+					.description("Time to decode a received message").register(registry);
+			callbacks = Timer.builder("codegame.events.callbacks").tags(eventTags).publishPercentileHistogram()
+					.description("Time the callbacks of an event took").register(registry);
+		}
+	}
+
+	private class CommandMeters {
+		final Counter sent;
+		final DistributionSummary bytes;
+
+		CommandMeters(String commandName) {
+			var commandTags = tags.and("command", commandName);
+			sent = Counter.builder("codegame.commands.sent").tags(commandTags)
+					.description("Sent commands").register(registry);
+			bytes = DistributionSummary.builder("codegame.commands.size").tags(commandTags).baseUnit("bytes")
+					.description("Size of sent messages, in characters for text messages").register(registry);
+		}
+	}
+
+	/**
+	 * @param registry The registry to which the meters are added.
+	 * @param tags     Additional tags of all meters as key value pairs.
+	 */
+	public MicrometerMetrics(MeterRegistry registry, String... tags) {
+		this.registry = registry;
+		this.tags = Tags.of(tags);
+		registry.gauge("codegame.dispatch.in_flight", this.tags, inFlight);
+		reconnectAttempts = Counter.builder("codegame.reconnects.attempts").tags(this.tags)
+				.description("Scheduled reconnect attempts").register(registry);
+		reconnects = Counter.builder("codegame.reconnects").tags(this.tags)
+				.description("Successful reconnects").register(registry);
+	}
+
+	@Override
+	public void eventReceived(String eventName, int size, long nanos) {
+		var meters = events.computeIfAbsent(eventName, newEventMeters);
+		meters.received.increment();
+		meters.bytes.record(size);
+		meters.decode.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void callbacksCompleted(String eventName, long nanos) {
+		events.computeIfAbsent(eventName, newEventMeters).callbacks.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void eventDropped(String eventName) {
+		droppedEvents.computeIfAbsent(eventName, newDroppedCounter).increment();
+	}
+
+	@Override
+	public void dispatchQueueDepth(int inFlight, int change) {
+		this.inFlight.addAndGet(change);
+	}
+
+	@Override
+	public void commandSent(String commandName, int size) {
+		var meters = commands.computeIfAbsent(commandName, newCommandMeters);
+		meters.sent.increment();
+		meters.bytes.record(size);
+	}
+
+	@Override
+	public void httpRequest(String route, int statusCode, long nanos) {
+		requests.computeIfAbsent(route, (key) -> new ConcurrentHashMap<>())
+				.computeIfAbsent(statusCode, (status) -> Timer.builder("codegame.http.requests")
+						.tags(tags.and("route", route, "status", Integer.toString(status)))
+						.publishPercentileHistogram().description("Requests to the game server")
+						.register(registry))
+				.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void reconnectAttempt(int attempt) {
+		reconnectAttempts.increment();
+	}
+
+	@Override
+	public void reconnected() {
+		reconnects.increment();
+	}
+
+	private EventMeters newEventMeters(String eventName) {
+		return new EventMeters(eventName);
+	}
+
+	private Counter newDroppedCounter(String eventName) {
+		return Counter.builder("codegame.events.dropped").tags(tags.and("event", eventName))
+				.description("Received events without callbacks").register(registry);
+	}
+
+	private CommandMeters newCommandMeters(String commandName) {
+		return new CommandMeters(commandName);
+	}
+}
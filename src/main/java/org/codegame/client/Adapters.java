@@ -0,0 +1,20 @@
+package org.codegame.client;
+
+import com.google.gson.TypeAdapter;
+
+/**
+ * Type adapters of command classes, resolved once per class.
+ */
+class Adapters {
+	private static final ClassValue<TypeAdapter<?>> adapters = new ClassValue<>() {
+		@Override
+		protected TypeAdapter<?> computeValue(Class<?> type) {
+			return Api.json().getAdapter(type);
+		}
+	};
+
+	@SuppressWarnings("unchecked")
+	static TypeAdapter<Object> forClass(Class<?> type) {
+		return (TypeAdapter<Object>) adapters.get(type);
+	}
+}
@@ -1,21 +1,33 @@
 package org.codegame.client;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
 import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashMap;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapterFactory;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.reflect.TypeToken;
 
@@ -26,15 +38,147 @@ public class Api {
 	private String url;
 	private boolean tls;
 	private String baseURL;
+	private HttpClient httpClient;
+	private GameInfo info;
+	private Metrics metrics = Metrics.noop();
+
+	private static volatile Gson json = new GsonBuilder()
+			.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+	// Set once json() was called. Adapters resolved from that instance are cached
+	// all over the client, so it must not be replaced anymore.
+	private static volatile boolean jsonUsed;
+
+	/**
+	 * Adds a factory of type adapters for event and command data, e.g. generated
+	 * adapters that do not use reflection. Adapters are resolved once per type
+	 * and cached, so factories must be registered before the first listener is
+	 * added, the first command is sent and the first request is made.
+	 *
+	 * @param factory The factory.
+	 * @throws IllegalStateException Thrown when type adapters have already been
+	 *                               resolved.
+	 */
+	public static synchronized void registerTypeAdapterFactory(TypeAdapterFactory factory) {
+		if (jsonUsed)
+			throw new IllegalStateException(
+					"Type adapter factories must be registered before any data is serialized or deserialized.");
+		json = json.newBuilder().registerTypeAdapterFactory(factory).create();
+	}
+
+	/**
+	 * @return The Gson instance of all sockets. No type adapter factories can be
+	 *         registered afterwards.
+	 */
+	static Gson json() {
+		if (!jsonUsed) {
+			// Orders this with a concurrent registration.
+			synchronized (Api.class) {
+				jsonUsed = true;
+			}
+		}
+		return json;
+	}
+
+	private static class DefaultHttpClient {
+		static final HttpClient instance = newHttpClient(null);
+	}
+
+	/**
+	 * Decodes the responses of HTTP clients without an executor of their own.
+	 * Decoding blocks on the body stream, so it must not run in the common pool.
+	 */
+	private static class DecodeExecutor {
+		static final ExecutorService instance = Executors.newCachedThreadPool((runnable) -> {
+			var thread = new Thread(runnable, "codegame-http");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static final Duration probeTimeout = Duration.ofSeconds(3);
+	private static final Duration probeGracePeriod = Duration.ofMillis(500);
+	private static final ConcurrentHashMap<String, CompletableFuture<Probe>> probes = new ConcurrentHashMap<>();
+
+	/**
+	 * The result of detecting whether a game server supports TLS.
+	 */
+	private static class Probe {
+		final boolean tls;
+		final GameInfo info;
 
-	static Gson json = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-			.create();
+		Probe(boolean tls, GameInfo info) {
+			this.tls = tls;
+			this.info = info;
+		}
+	}
 
 	Api(String url) {
-		HttpURLConnection.setFollowRedirects(true);
+		this(url, defaultHttpClient());
+	}
+
+	/**
+	 * Creates a new Api instance which sends all requests with the HTTP client.
+	 *
+	 * When the URL starts with a protocol (http, https, ws or wss), it determines
+	 * whether TLS is used. Otherwise https and http are tried concurrently and the
+	 * result is cached for the rest of the process.
+	 *
+	 * @param url        The URL of the game server. The protocol may be omitted.
+	 * @param httpClient The HTTP client. It can be shared by any number of Api
+	 *                   instances.
+	 */
+	public Api(String url, HttpClient httpClient) {
+		this.url = trimURL(url);
+		this.httpClient = httpClient;
+		var explicitTLS = schemeTLS(url);
+		if (explicitTLS != null) {
+			this.tls = explicitTLS;
+		} else {
+			var probe = probe(this.url, httpClient);
+			if (probe != null) {
+				this.tls = probe.tls;
+				this.info = probe.info;
+			}
+		}
+		this.baseURL = Api.baseURL("http", this.tls, this.url);
+	}
+
+	Api(String url, boolean tls) {
+		this(url, tls, defaultHttpClient());
+	}
+
+	Api(String url, boolean tls, HttpClient httpClient) {
 		this.url = trimURL(url);
-		this.tls = isTLS(this.url);
+		this.tls = tls;
 		this.baseURL = Api.baseURL("http", this.tls, this.url);
+		this.httpClient = httpClient;
+	}
+
+	/**
+	 * @return The HTTP client that is shared by all Api instances which were not
+	 *         given a client explicitly.
+	 */
+	public static HttpClient defaultHttpClient() {
+		return DefaultHttpClient.instance;
+	}
+
+	/**
+	 * Creates an HTTP client with the settings of the default client. Connections
+	 * are kept alive and HTTP/2 is used when the server supports it.
+	 *
+	 * @param executor The executor for asynchronous tasks of the client, which
+	 *                 also decodes the responses, or null to use the default
+	 *                 executor.
+	 * @return The new client.
+	 */
+	public static HttpClient newHttpClient(Executor executor) {
+		var builder = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofSeconds(10));
+		if (executor != null)
+			builder.executor(executor);
+		return builder.build();
 	}
 
 	/**
@@ -62,7 +206,27 @@ public class Api {
 	 * @throws IOException Thrown when the request fails.
 	 */
 	public GameInfo fetchInfo() throws IOException {
-		return fetchJSON("/api/info", GameInfo.class);
+		return await(fetchInfoAsync());
+	}
+
+	/**
+	 * Fetches game info from the `/api/info` endpoint without blocking.
+	 *
+	 * @return A future that completes with an instance of the GameInfo class or
+	 *         completes exceptionally with an IOException when the request fails.
+	 */
+	public CompletableFuture<GameInfo> fetchInfoAsync() {
+		return fetchJSON("/api/info", "/api/info", GameInfo.class);
+	}
+
+	/**
+	 * @return The game info that was received while detecting TLS or fetched
+	 *         info when there was none.
+	 */
+	GameInfo info() throws IOException {
+		if (info == null)
+			info = fetchInfo();
+		return info;
 	}
 
 	private static class GameConfigResponse<T> {
@@ -79,10 +243,23 @@ public class Api {
 	 * @throws IOException Thrown when the request fails.
 	 */
 	public <T> T fetchGameConfig(String gameId, Class<T> configClass) throws IOException {
-		GameConfigResponse<T> response = fetchJSON("/api/games/" + gameId,
+		return await(fetchGameConfigAsync(gameId, configClass));
+	}
+
+	/**
+	 * Fetches the config of the game without blocking.
+	 *
+	 * @param <T>         The type of the game config.
+	 * @param gameId      The ID of the game.
+	 * @param configClass The class of the game config.
+	 * @return A future that completes with an instance of T or completes
+	 *         exceptionally with an IOException when the request fails.
+	 */
+	public <T> CompletableFuture<T> fetchGameConfigAsync(String gameId, Class<T> configClass) {
+		return this.<GameConfigResponse<T>>fetchJSON("/api/games/{game_id}", "/api/games/" + gameId,
 				TypeToken.getParameterized(GameConfigResponse.class,
-						configClass).getType());
-		return response.config;
+						configClass).getType())
+				.thenApply((response) -> response.config);
 	}
 
 	public class GameData {
@@ -102,11 +279,15 @@ public class Api {
 	}
 
 	GameData createGame(boolean makePublic, boolean protect, Object config) throws IOException {
+		return await(createGameAsync(makePublic, protect, config));
+	}
+
+	CompletableFuture<GameData> createGameAsync(boolean makePublic, boolean protect, Object config) {
 		var data = new CreateGameRequest();
 		data.makePublic = makePublic;
 		data.protect = protect;
 		data.config = config;
-		return postJSON("/api/games", data, GameData.class);
+		return postJSON("/api/games", "/api/games", data, GameData.class);
 	}
 
 	public class PlayerData {
@@ -128,10 +309,15 @@ public class Api {
 	}
 
 	PlayerData createPlayer(String gameId, String username, String joinSecret) throws IOException {
+		return await(createPlayerAsync(gameId, username, joinSecret));
+	}
+
+	CompletableFuture<PlayerData> createPlayerAsync(String gameId, String username, String joinSecret) {
 		var data = new CreatePlayerRequest();
 		data.username = username;
 		data.joinSecret = joinSecret;
-		return postJSON("/api/games/" + gameId + "/players", data, PlayerData.class);
+		return postJSON("/api/games/{game_id}/players", "/api/games/" + gameId + "/players", data,
+				PlayerData.class);
 	}
 
 	private class FetchUsernameResponse {
@@ -140,91 +326,108 @@ public class Api {
 	}
 
 	String fetchUsername(String gameId, String playerId) throws IOException {
-		return fetchJSON("/api/games/" + gameId + "/players/" + playerId, FetchUsernameResponse.class).username;
+		return await(fetchUsernameAsync(gameId, playerId));
+	}
+
+	CompletableFuture<String> fetchUsernameAsync(String gameId, String playerId) {
+		return this.<FetchUsernameResponse>fetchJSON("/api/games/{game_id}/players/{player_id}",
+				"/api/games/" + gameId + "/players/" + playerId, FetchUsernameResponse.class)
+				.thenApply((response) -> response.username);
 	}
 
 	HashMap<String, String> fetchPlayers(String gameId) throws IOException {
-		return fetchJSON("/api/games/" + gameId + "/players",
+		return await(fetchPlayersAsync(gameId));
+	}
+
+	CompletableFuture<HashMap<String, String>> fetchPlayersAsync(String gameId) {
+		return fetchJSON("/api/games/{game_id}/players", "/api/games/" + gameId + "/players",
 				TypeToken.getParameterized(HashMap.class, String.class, String.class).getType());
 	}
 
-	WebSocket connectWebSocket(String endpoint, WSClient.OnMessageCallback onMessage,
-			WSClient.OnCloseCallback onClose) {
-		return HttpClient.newHttpClient().newWebSocketBuilder()
-				.buildAsync(URI.create(baseURL("ws", tls, url + endpoint)),
-						new WSClient(onMessage, onClose))
-				.join();
+	WebSocket connectWebSocket(String endpoint, WebSocket.Listener listener, String... subprotocols)
+			throws IOException {
+		return await(connectWebSocketAsync(endpoint, listener, subprotocols));
 	}
 
-	private <T> T postJSON(String endpoint, Object requestData, Class<T> responseType) throws IOException {
-		URL obj = new URL(this.baseURL + endpoint);
-		HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-		con.setRequestMethod("POST");
-		con.setRequestProperty("Content-Type", "application/json");
+	CompletableFuture<WebSocket> connectWebSocketAsync(String endpoint, WebSocket.Listener listener,
+			String... subprotocols) {
+		var builder = httpClient.newWebSocketBuilder();
+		if (subprotocols.length > 0)
+			builder.subprotocols(subprotocols[0], Arrays.copyOfRange(subprotocols, 1, subprotocols.length));
+		return builder.buildAsync(URI.create(baseURL("ws", tls, url + endpoint)), listener);
+	}
 
-		var reqData = json.toJson(requestData);
-		con.setDoOutput(true);
-		var os = con.getOutputStream();
-		try {
-			os.write(reqData.getBytes());
-			os.flush();
-		} finally {
-			os.close();
-		}
+	private <T> CompletableFuture<T> postJSON(String route, String endpoint, Object requestData, Type responseType) {
+		var request = HttpRequest.newBuilder(URI.create(this.baseURL + endpoint))
+				.header("Content-Type", "application/json")
+				.header("Accept", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(json().toJson(requestData), StandardCharsets.UTF_8))
+				.build();
+		return send(route, endpoint, request, responseType);
+	}
 
-		int responseCode = con.getResponseCode();
-		if (responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_CREATED) {
-			throw new IOException("Failed to read response from " + endpoint + " endpoint: unexpected response code: "
-					+ responseCode);
-		}
+	private <T> CompletableFuture<T> fetchJSON(String route, String endpoint, Type responseType) {
+		var request = HttpRequest.newBuilder(URI.create(this.baseURL + endpoint))
+				.header("Accept", "application/json")
+				.GET()
+				.build();
+		return send(route, endpoint, request, responseType);
+	}
 
-		InputStreamReader reader = new InputStreamReader(con.getInputStream());
-		try {
-			T data = json.fromJson(reader, responseType);
-			return data;
-		} finally {
-			reader.close();
-		}
+	/**
+	 * @param route The endpoint with placeholders instead of IDs, which is
+	 *              reported to the metrics.
+	 */
+	private <T> CompletableFuture<T> send(String route, String endpoint, HttpRequest request, Type responseType) {
+		var metrics = this.metrics;
+		long start = metrics == Metrics.noop() ? 0 : System.nanoTime();
+		var response = httpClient.sendAsync(request, new JsonBodyHandler<T>(endpoint, responseType));
+		// The body is decoded while it is being received, which blocks, so it must not
+		// happen on the selector thread of the HTTP client.
+		var executor = httpClient.executor();
+		var result = response.thenApplyAsync(Api::<T>decode,
+				executor.isPresent() ? executor.get() : DecodeExecutor.instance);
+		if (metrics == Metrics.noop())
+			return result;
+		return result.whenComplete((body, e) -> metrics.httpRequest(route,
+				response.isDone() && !response.isCompletedExceptionally() ? response.join().statusCode() : -1,
+				System.nanoTime() - start));
 	}
 
-	private <T> T fetchJSON(String endpoint, Class<T> responseType) throws IOException {
-		var obj = new URL(this.baseURL + endpoint);
-		var con = (HttpURLConnection) obj.openConnection();
-		con.setRequestMethod("GET");
-		con.setRequestProperty("Accept", "application/json");
-		var reader = new InputStreamReader(con.getInputStream());
+	/**
+	 * Sets where the latency of requests is reported. Defaults to
+	 * {@link Metrics#noop()}.
+	 *
+	 * @param metrics The metrics.
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	private static <T> T decode(HttpResponse<Supplier<T>> response) {
 		try {
-			int responseCode = con.getResponseCode();
-			if (responseCode != HttpURLConnection.HTTP_OK) {
-				throw new IOException(
-						"Failed to read response from " + endpoint + " endpoint: unexpected response code: "
-								+ responseCode);
-			}
-			T data = json.fromJson(reader, responseType);
-			return data;
-		} finally {
-			reader.close();
+			return response.body().get();
+		} catch (UncheckedIOException e) {
+			throw new CompletionException(e.getCause());
 		}
 	}
 
-	private <T> T fetchJSON(String endpoint, Type responseType) throws IOException {
-		var obj = new URL(this.baseURL + endpoint);
-		var con = (HttpURLConnection) obj.openConnection();
-		con.setRequestMethod("GET");
-		con.setRequestProperty("Accept", "application/json");
-		var reader = new InputStreamReader(con.getInputStream());
+	/**
+	 * Waits for the future and unwraps its exception.
+	 */
+	static <T> T await(CompletableFuture<T> future) throws IOException {
 		try {
-			int responseCode = con.getResponseCode();
-			if (responseCode != HttpURLConnection.HTTP_OK) {
-				reader.close();
-				throw new IOException(
-						"Failed to read response from " + endpoint + " endpoint: unexpected response code: "
-								+ responseCode);
-			}
-			T data = json.fromJson(reader, responseType);
-			return data;
-		} finally {
-			reader.close();
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the response.", e);
+		} catch (ExecutionException e) {
+			var cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(cause);
 		}
 	}
 
@@ -244,26 +447,74 @@ public class Api {
 		return protocol + "://" + trimmedURL;
 	}
 
-	static boolean isTLS(String trimmedURL) {
-		try {
-			var url = new URL(baseURL("http", true, trimmedURL) + "/api/info");
-			var connection = (HttpsURLConnection) url.openConnection();
-			var stream = connection.getInputStream();
-			if (connection.getSSLSession().isEmpty()) {
-				stream.close();
-				return false;
-			}
-			if (!connection.getSSLSession().get().isValid()) {
-				stream.close();
-				return false;
-			}
-			stream.close();
+	/**
+	 * @return Whether the protocol of the URL implies TLS or null when the URL has
+	 *         no known protocol.
+	 */
+	static Boolean schemeTLS(String url) {
+		var lower = url.toLowerCase();
+		if (lower.startsWith("https://") || lower.startsWith("wss://"))
 			return true;
-		} catch (IOException e) {
+		if (lower.startsWith("http://") || lower.startsWith("ws://"))
 			return false;
+		return null;
+	}
+
+	/**
+	 * Requests `/api/info` over https and http at the same time. https wins when
+	 * it succeeds. When http answers first, https is only waited for a short
+	 * grace period, so servers which stall the TLS handshake do not delay the
+	 * result until the timeout. Successful results are cached per URL.
+	 *
+	 * @return The result or null when neither request succeeded.
+	 */
+	private static Probe probe(String trimmedURL, HttpClient httpClient) {
+		var probe = probes.computeIfAbsent(trimmedURL, (url) -> {
+			var result = new CompletableFuture<Probe>();
+			var https = probeInfo(url, true, httpClient);
+			var http = probeInfo(url, false, httpClient);
+			https.whenComplete((secure, e) -> {
+				if (e == null) {
+					result.complete(secure);
+					http.cancel(true);
+					return;
+				}
+				http.whenComplete((plain, e2) -> {
+					if (e2 == null)
+						result.complete(plain);
+					else
+						result.completeExceptionally(e2);
+				});
+			});
+			http.thenAccept((plain) -> CompletableFuture
+					.delayedExecutor(probeGracePeriod.toMillis(), TimeUnit.MILLISECONDS)
+					.execute(() -> result.complete(plain)));
+			return result;
+		});
+		try {
+			return probe.join();
+		} catch (CompletionException | CancellationException e) {
+			probes.remove(trimmedURL, probe);
+			return null;
 		}
 	}
 
+	private static CompletableFuture<Probe> probeInfo(String trimmedURL, boolean tls, HttpClient httpClient) {
+		var request = HttpRequest.newBuilder(URI.create(baseURL("http", tls, trimmedURL) + "/api/info"))
+				.header("Accept", "application/json")
+				.timeout(probeTimeout)
+				.GET()
+				.build();
+		return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply((response) -> {
+			if (response.statusCode() != HttpURLConnection.HTTP_OK)
+				throw new CompletionException(
+						new IOException("unexpected response code: " + response.statusCode()));
+			// An http request may have been redirected to https.
+			var secure = tls || response.uri().getScheme().equals("https");
+			return new Probe(secure, json().fromJson(response.body(), GameInfo.class));
+		});
+	}
+
 	/**
 	 * @return The URL of the game server without any protocol.
 	 */
@@ -284,4 +535,11 @@ public class Api {
 	public boolean isTLS() {
 		return tls;
 	}
+
+	/**
+	 * @return The HTTP client that is used for all requests.
+	 */
+	public HttpClient getHttpClient() {
+		return httpClient;
+	}
 }
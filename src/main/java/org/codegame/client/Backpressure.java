@@ -0,0 +1,21 @@
+package org.codegame.client;
+
+/**
+ * Determines what happens when a command is sent while the outbound queue of a
+ * {@link GameSocket} is full.
+ */
+public enum Backpressure {
+	/**
+	 * Blocks the sending thread until there is space in the queue.
+	 */
+	BLOCK,
+	/**
+	 * Drops the oldest command that has not been written yet. Its future completes
+	 * exceptionally.
+	 */
+	DROP_OLDEST,
+	/**
+	 * Rejects the new command. Its future completes exceptionally.
+	 */
+	FAIL
+}
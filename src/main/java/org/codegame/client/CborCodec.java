@@ -0,0 +1,136 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+
+/**
+ * Sends events as CBOR (RFC 8949) binary frames.
+ *
+ * An event is a map with the text keys {@code name} and {@code data}. The data
+ * is streamed between CBOR and the same Gson type adapters as JSON events,
+ * see {@link CborReader} and {@link CborWriter}. Data of events nobody listens
+ * for is skipped without being decoded.
+ */
+final class CborCodec implements EventCodec {
+	static final CborCodec instance = new CborCodec();
+
+	private CborCodec() {
+	}
+
+	@Override
+	public String getSubprotocol() {
+		return "cbor";
+	}
+
+	@Override
+	public boolean isBinary() {
+		return true;
+	}
+
+	@Override
+	public GameSocket.Event<?> decodeBinary(ByteBuffer message, AdapterLookup listeners) throws IOException {
+		try {
+			var in = message.slice();
+			var reader = new CborReader(in);
+			String name = null;
+			TypeAdapter<?> adapter = null;
+			int dataPosition = -1;
+			Object data = null;
+
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "name":
+						name = reader.nextString();
+						adapter = listeners.adapterFor(name);
+						if (adapter == null)
+							return null;
+						break;
+					case "data":
+						if (adapter != null) {
+							data = adapter.read(reader);
+						} else {
+							// The server sent the data before the name, so it is bound once the
+							// name is known.
+							dataPosition = reader.position();
+							reader.skipValue();
+						}
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			if (adapter == null)
+				return null;
+			if (dataPosition >= 0)
+				data = adapter.read(new CborReader(in.position(dataPosition)));
+			return new GameSocket.Event<>(name, data);
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid CBOR event: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public RawEvent scanBinary(ByteBuffer message) throws IOException {
+		try {
+			var in = message.slice();
+			var reader = new CborReader(in);
+			String name = null;
+			ByteBuffer data = null;
+
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "name":
+						name = reader.nextString();
+						break;
+					case "data":
+						int start = reader.position();
+						reader.skipValue();
+						// Copied because the message may be a reused buffer.
+						data = ByteBuffer.allocate(in.position() - start).put(in.slice(start, in.position() - start))
+								.flip();
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			if (name == null)
+				throw new IOException("The event has no name.");
+			return new RawEvent(this, name, null, data);
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid CBOR event: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public <T> T decodeBinaryData(ByteBuffer data, TypeAdapter<T> adapter) throws IOException {
+		try {
+			return adapter.read(new CborReader(data));
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid CBOR data: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public ByteBuffer encodeBinary(String name, Object data) throws IOException {
+		var out = new CborWriter();
+		out.setSerializeNulls(Api.json().serializeNulls());
+		try {
+			out.beginObject();
+			out.name("name").value(name);
+			out.name("data");
+			if (data == null)
+				out.nullValue();
+			else
+				Adapters.forClass(data.getClass()).write(out, data);
+			out.endObject();
+		} catch (JsonParseException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		return out.toByteBuffer();
+	}
+}
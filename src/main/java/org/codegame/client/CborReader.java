@@ -0,0 +1,628 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Reads a single CBOR data item as a stream of JSON tokens, so Gson type
+ * adapters bind CBOR directly without building a JSON tree.
+ *
+ * Byte strings are read as arrays of numbers, like Gson represents byte
+ * arrays. Bignums and decimal fractions (tags 2 to 4) are read as numbers with
+ * all of their digits, other tags are ignored. Map keys that are not text are
+ * read as their string representation.
+ */
+final class CborReader extends JsonReader {
+	/**
+	 * Gson binds map keys by promoting the name to a string through the private
+	 * state of JsonReader, which cannot be overridden. The base reader therefore
+	 * reads an endless object of empty names and values, so a promotion is
+	 * visible through {@link JsonReader#peek()} and can be consumed there.
+	 */
+	private static final class EmptyNames extends Reader {
+		private static final char[] entry = "\"\":\"\",".toCharArray();
+		private boolean started;
+		private int index;
+
+		@Override
+		public int read(char[] buffer, int offset, int length) {
+			if (!started) {
+				started = true;
+				buffer[offset] = '{';
+				return 1;
+			}
+			for (int i = 0; i < length; i++) {
+				buffer[offset + i] = entry[index];
+				index = (index + 1) % entry.length;
+			}
+			return length;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static final int unsignedInt = 0;
+	private static final int negativeInt = 1;
+	private static final int byteString = 2;
+	private static final int textString = 3;
+	private static final int array = 4;
+	private static final int map = 5;
+	private static final int tag = 6;
+	private static final int simple = 7;
+
+	private static final int positiveBignum = 2;
+	private static final int negativeBignum = 3;
+	private static final int decimalFraction = 4;
+
+	private static final int indefinite = 31;
+	private static final int breakCode = 0xff;
+
+	private final ByteBuffer in;
+	// The open arrays, maps and byte strings. A map has two items per entry.
+	private int[] kinds = new int[16];
+	private long[] items = new long[16];
+	private long[] itemsRead = new long[16];
+	private int depth;
+	// The content of the open byte string, which cannot contain other items.
+	private byte[] bytes;
+	private boolean done;
+
+	/**
+	 * @param in The item is read from the position of the buffer, which is
+	 *           advanced while reading.
+	 */
+	CborReader(ByteBuffer in) {
+		super(new EmptyNames());
+		this.in = in;
+		try {
+			super.beginObject();
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * @return The position of the next item in the buffer.
+	 */
+	int position() {
+		return in.position();
+	}
+
+	@Override
+	public JsonToken peek() throws IOException {
+		if (depth > 0) {
+			int top = depth - 1;
+			if (kinds[top] == byteString)
+				return itemsRead[top] < items[top] ? JsonToken.NUMBER : JsonToken.END_ARRAY;
+			if (atEnd(top))
+				return kinds[top] == map ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+			if (atName())
+				return super.peek() == JsonToken.STRING ? JsonToken.STRING : JsonToken.NAME;
+		} else if (done) {
+			return JsonToken.END_DOCUMENT;
+		}
+		return peekValue();
+	}
+
+	private JsonToken peekValue() throws IOException {
+		skipTags();
+		int initial = in.get(in.position()) & 0xff;
+		switch (initial >>> 5) {
+			case unsignedInt:
+			case negativeInt:
+				return JsonToken.NUMBER;
+			case byteString:
+			case array:
+				return JsonToken.BEGIN_ARRAY;
+			case textString:
+				return JsonToken.STRING;
+			case map:
+				return JsonToken.BEGIN_OBJECT;
+			case tag:
+				// skipTags() stops at bignums and decimal fractions.
+				return JsonToken.NUMBER;
+			default:
+				switch (initial & 0x1f) {
+					case 20:
+					case 21:
+						return JsonToken.BOOLEAN;
+					case 25:
+					case 26:
+					case 27:
+						return JsonToken.NUMBER;
+					case indefinite:
+						throw new IOException("Unexpected CBOR break at " + in.position() + ".");
+					default:
+						return JsonToken.NULL;
+				}
+		}
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+		var token = peek();
+		return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		expect(JsonToken.BEGIN_ARRAY);
+		int initial = in.get() & 0xff;
+		long length = length(initial);
+		if (initial >>> 5 == byteString) {
+			bytes = readBytes(length);
+			push(byteString, bytes.length);
+		} else {
+			push(array, length);
+		}
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		expect(JsonToken.END_ARRAY);
+		if (kinds[depth - 1] == byteString)
+			bytes = null;
+		else if (items[depth - 1] < 0)
+			in.get();
+		depth--;
+		valueRead();
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		expect(JsonToken.BEGIN_OBJECT);
+		long length = length(in.get() & 0xff);
+		push(map, length < 0 ? -1 : length * 2);
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		expect(JsonToken.END_OBJECT);
+		if (items[depth - 1] < 0)
+			in.get();
+		depth--;
+		valueRead();
+	}
+
+	@Override
+	public String nextName() throws IOException {
+		expect(JsonToken.NAME);
+		var name = readScalar();
+		itemsRead[depth - 1]++;
+		return name;
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		var token = peek();
+		if (token != JsonToken.STRING && token != JsonToken.NUMBER)
+			throw unexpected(JsonToken.STRING, token);
+		if (inByteString())
+			return Integer.toString(nextByte());
+		var value = readScalar();
+		scalarRead();
+		return value;
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		expect(JsonToken.BOOLEAN);
+		boolean value = (in.get() & 0x1f) == 21;
+		valueRead();
+		return value;
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		expect(JsonToken.NULL);
+		if ((in.get() & 0x1f) == 24)
+			in.get();
+		valueRead();
+	}
+
+	@Override
+	public double nextDouble() throws IOException {
+		var token = peek();
+		if (token == JsonToken.STRING) {
+			double value = Double.parseDouble(readScalar());
+			scalarRead();
+			return value;
+		}
+		if (token != JsonToken.NUMBER)
+			throw unexpected(JsonToken.NUMBER, token);
+		if (inByteString())
+			return nextByte();
+		if (atNumberTag()) {
+			double value = readTaggedNumber().doubleValue();
+			valueRead();
+			return value;
+		}
+		int initial = in.get() & 0xff;
+		double value;
+		if (initial >>> 5 == simple) {
+			value = readFloat(initial & 0x1f);
+		} else {
+			long length = length(initial);
+			double magnitude = length < 0 ? new BigInteger(Long.toUnsignedString(length)).doubleValue() : length;
+			value = initial >>> 5 == negativeInt ? -1 - magnitude : magnitude;
+		}
+		valueRead();
+		return value;
+	}
+
+	@Override
+	public long nextLong() throws IOException {
+		var token = peek();
+		if (token == JsonToken.STRING) {
+			var text = readScalar();
+			scalarRead();
+			try {
+				return Long.parseLong(text);
+			} catch (NumberFormatException e) {
+				return exactLong(Double.parseDouble(text));
+			}
+		}
+		if (token != JsonToken.NUMBER)
+			throw unexpected(JsonToken.NUMBER, token);
+		if (inByteString())
+			return nextByte();
+		if (atNumberTag()) {
+			long value;
+			try {
+				value = readTaggedNumber().longValueExact();
+			} catch (ArithmeticException e) {
+				throw new NumberFormatException("Expected a long but was " + e.getMessage() + ".");
+			}
+			valueRead();
+			return value;
+		}
+		int initial = in.get() & 0xff;
+		long value;
+		if (initial >>> 5 == simple) {
+			value = exactLong(readFloat(initial & 0x1f));
+		} else {
+			long length = length(initial);
+			if (length < 0)
+				throw new NumberFormatException("The CBOR integer does not fit into a long.");
+			value = initial >>> 5 == negativeInt ? -1 - length : length;
+		}
+		valueRead();
+		return value;
+	}
+
+	@Override
+	public int nextInt() throws IOException {
+		long value = nextLong();
+		if ((int) value != value)
+			throw new NumberFormatException("Expected an int but was " + value + ".");
+		return (int) value;
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+		var token = peek();
+		switch (token) {
+			case NAME:
+				nextName();
+				return;
+			case END_ARRAY:
+			case END_OBJECT:
+			case END_DOCUMENT:
+				throw new IllegalStateException("Expected a value but was " + token + ".");
+			default:
+		}
+		if (inByteString()) {
+			nextByte();
+			return;
+		}
+		skip();
+		valueRead();
+	}
+
+	@Override
+	public void close() {
+		depth = 0;
+		bytes = null;
+		done = true;
+	}
+
+	@Override
+	public String toString() {
+		return "CborReader at " + in.position();
+	}
+
+	private void skip() throws IOException {
+		int initial = in.get() & 0xff;
+		int major = initial >>> 5;
+		long length = length(initial);
+		switch (major) {
+			case byteString:
+			case textString:
+				if (length < 0) {
+					while (!atBreak())
+						skip();
+				} else {
+					in.position(in.position() + (int) length);
+				}
+				break;
+			case array:
+			case map:
+				long count = major == map ? length * 2 : length;
+				for (long i = 0; length < 0 ? !atBreak() : i < count; i++)
+					skip();
+				break;
+			case tag:
+				skip();
+				break;
+			default:
+				if (major == simple && (initial & 0x1f) == 24)
+					in.get();
+				// Other integers and simple values have no content besides the head.
+		}
+	}
+
+	private void push(int kind, long length) {
+		if (depth == kinds.length) {
+			kinds = Arrays.copyOf(kinds, depth * 2);
+			items = Arrays.copyOf(items, depth * 2);
+			itemsRead = Arrays.copyOf(itemsRead, depth * 2);
+		}
+		kinds[depth] = kind;
+		items[depth] = length;
+		itemsRead[depth] = 0;
+		depth++;
+	}
+
+	private void valueRead() {
+		if (depth > 0)
+			itemsRead[depth - 1]++;
+		else
+			done = true;
+	}
+
+	/**
+	 * Like {@link #valueRead()}, but also consumes a name that Gson promoted to a
+	 * string from the base reader.
+	 */
+	private void scalarRead() throws IOException {
+		if (atName()) {
+			super.nextString();
+			super.nextString();
+		}
+		valueRead();
+	}
+
+	private boolean atName() {
+		return depth > 0 && kinds[depth - 1] == map && itemsRead[depth - 1] % 2 == 0;
+	}
+
+	private boolean inByteString() {
+		return depth > 0 && kinds[depth - 1] == byteString;
+	}
+
+	private int nextByte() {
+		return bytes[(int) itemsRead[depth - 1]++];
+	}
+
+	private boolean atEnd(int level) {
+		if (items[level] >= 0)
+			return itemsRead[level] >= items[level];
+		return (in.get(in.position()) & 0xff) == breakCode;
+	}
+
+	private boolean atBreak() {
+		if ((in.get(in.position()) & 0xff) != breakCode)
+			return false;
+		in.get();
+		return true;
+	}
+
+	/**
+	 * Skips the tags in front of the next item, except for the tags of numbers.
+	 */
+	private void skipTags() throws IOException {
+		while ((in.get(in.position()) & 0xff) >>> 5 == tag && !atNumberTag())
+			length(in.get() & 0xff);
+	}
+
+	private boolean atNumberTag() throws IOException {
+		int start = in.position();
+		int initial = in.get(start) & 0xff;
+		if (initial >>> 5 != tag)
+			return false;
+		in.get();
+		long number = length(initial);
+		in.position(start);
+		return number >= positiveBignum && number <= decimalFraction;
+	}
+
+	/**
+	 * Reads a bignum or a decimal fraction.
+	 */
+	private BigDecimal readTaggedNumber() throws IOException {
+		long number = length(in.get() & 0xff);
+		if (number != decimalFraction)
+			return new BigDecimal(readBignum(number));
+		int initial = in.get() & 0xff;
+		if (initial >>> 5 != array || length(initial) != 2)
+			throw new IOException("Invalid CBOR decimal fraction at " + (in.position() - 1) + ".");
+		var exponent = readInteger();
+		var mantissa = readInteger();
+		try {
+			return new BigDecimal(mantissa, -exponent.intValueExact());
+		} catch (ArithmeticException e) {
+			throw new IOException("The exponent of the CBOR decimal fraction is too large.", e);
+		}
+	}
+
+	/**
+	 * Reads an integer or a bignum.
+	 */
+	private BigInteger readInteger() throws IOException {
+		int initial = in.get() & 0xff;
+		int major = initial >>> 5;
+		long length = length(initial);
+		if (major == unsignedInt || major == negativeInt) {
+			var magnitude = length < 0 ? new BigInteger(Long.toUnsignedString(length)) : BigInteger.valueOf(length);
+			// Negative integers are encoded as -1 - n.
+			return major == negativeInt ? magnitude.not() : magnitude;
+		}
+		if (major == tag && (length == positiveBignum || length == negativeBignum))
+			return readBignum(length);
+		throw new IOException("Expected a CBOR integer at " + (in.position() - 1) + ".");
+	}
+
+	private BigInteger readBignum(long number) throws IOException {
+		int initial = in.get() & 0xff;
+		if (initial >>> 5 != byteString)
+			throw new IOException("Invalid CBOR bignum at " + (in.position() - 1) + ".");
+		var magnitude = new BigInteger(1, readBytes(length(initial)));
+		return number == negativeBignum ? magnitude.not() : magnitude;
+	}
+
+	private void expect(JsonToken expected) throws IOException {
+		var token = peek();
+		if (token != expected)
+			throw unexpected(expected, token);
+	}
+
+	private IllegalStateException unexpected(JsonToken expected, JsonToken token) {
+		return new IllegalStateException("Expected " + expected + " but was " + token + " at " + in.position() + ".");
+	}
+
+	/**
+	 * Reads a text string, number or boolean as a string.
+	 */
+	private String readScalar() throws IOException {
+		skipTags();
+		if (atNumberTag())
+			return readTaggedNumber().toString();
+		int initial = in.get() & 0xff;
+		int major = initial >>> 5;
+		if (major == simple) {
+			int info = initial & 0x1f;
+			if (info == 20 || info == 21)
+				return Boolean.toString(info == 21);
+			if (info == 26)
+				return Float.toString(in.getFloat());
+			return Double.toString(readFloat(info));
+		}
+		long length = length(initial);
+		switch (major) {
+			case unsignedInt:
+				return Long.toUnsignedString(length);
+			case negativeInt:
+				if (length < 0)
+					return BigInteger.ONE.negate().subtract(new BigInteger(Long.toUnsignedString(length))).toString();
+				return Long.toString(-1 - length);
+			case textString:
+				if (length < 0)
+					return new String(readBytes(length), StandardCharsets.UTF_8);
+				return readText((int) length);
+			default:
+				throw new IllegalStateException("Expected a CBOR string or number at " + (in.position() - 1) + ".");
+		}
+	}
+
+	private double readFloat(int info) throws IOException {
+		switch (info) {
+			case 25:
+				return halfToDouble(in.getShort() & 0xffff);
+			case 26:
+				return in.getFloat();
+			case 27:
+				return in.getDouble();
+			default:
+				throw new IllegalStateException("Expected a CBOR number at " + (in.position() - 1) + ".");
+		}
+	}
+
+	private static long exactLong(double value) {
+		long result = (long) value;
+		if (result != value)
+			throw new NumberFormatException("Expected a long but was " + value + ".");
+		return result;
+	}
+
+	/**
+	 * Reads the argument of a data item head.
+	 *
+	 * @return The argument or -1 for indefinite lengths.
+	 */
+	private long length(int initial) throws IOException {
+		int info = initial & 0x1f;
+		if (info < 24)
+			return info;
+		switch (info) {
+			case 24:
+				return in.get() & 0xff;
+			case 25:
+				return in.getShort() & 0xffff;
+			case 26:
+				return in.getInt() & 0xffffffffL;
+			case 27:
+				return in.getLong();
+			case indefinite:
+				return -1;
+			default:
+				throw new IOException("Invalid CBOR additional info: " + info);
+		}
+	}
+
+	private String readText(int length) {
+		String text;
+		if (in.hasArray()) {
+			text = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		} else {
+			var bytes = new byte[length];
+			in.get(in.position(), bytes);
+			text = new String(bytes, StandardCharsets.UTF_8);
+		}
+		in.position(in.position() + length);
+		return text;
+	}
+
+	private byte[] readBytes(long length) throws IOException {
+		if (length >= 0) {
+			var bytes = new byte[(int) length];
+			in.get(bytes);
+			return bytes;
+		}
+		// Indefinite length strings consist of definite length chunks.
+		var chunks = new byte[0];
+		while (!atBreak()) {
+			var chunk = readBytes(length(in.get() & 0xff));
+			int size = chunks.length;
+			chunks = Arrays.copyOf(chunks, size + chunk.length);
+			System.arraycopy(chunk, 0, chunks, size, chunk.length);
+		}
+		return chunks;
+	}
+
+	/**
+	 * Converts a half-precision float. Every half-precision value is exactly
+	 * representable as a double.
+	 */
+	private static double halfToDouble(int half) {
+		int exponent = (half >>> 10) & 0x1f;
+		int mantissa = half & 0x3ff;
+		double value;
+		if (exponent == 0)
+			value = Math.scalb((double) mantissa, -24);
+		else if (exponent != 31)
+			value = Math.scalb((double) (mantissa + 1024), exponent - 25);
+		else
+			value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+		return (half & 0x8000) != 0 ? -value : value;
+	}
+}
@@ -0,0 +1,394 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes the JSON tokens of Gson type adapters directly as CBOR.
+ *
+ * Arrays and maps get definite lengths: a one byte head is reserved when they
+ * begin and widened when they end, if needed. Floating point numbers are
+ * written with the smallest precision that represents them exactly. Integers
+ * beyond 64 bits are written as bignums (tags 2 and 3) and decimals that a
+ * double cannot represent exactly as decimal fractions (tag 4).
+ */
+final class CborWriter extends JsonWriter {
+	private static final Writer unwritable = Writer.nullWriter();
+	// Integral decimals with larger exponents stay decimal fractions instead of
+	// being expanded into huge integers.
+	private static final int maxIntegerExponent = 64;
+
+	private static final int unsignedInt = 0;
+	private static final int negativeInt = 1;
+	private static final int byteString = 2;
+	private static final int textString = 3;
+	private static final int array = 4;
+	private static final int map = 5;
+	private static final int tag = 6;
+	private static final int simple = 7;
+
+	private static final int positiveBignum = 2;
+	private static final int negativeBignum = 3;
+	private static final int decimalFraction = 4;
+
+	private byte[] buffer = new byte[256];
+	private int size;
+	// The open arrays and maps with the position of their head and their items.
+	private int[] kinds = new int[16];
+	private int[] starts = new int[16];
+	private int[] counts = new int[16];
+	private int depth;
+	private String deferredName;
+
+	CborWriter() {
+		super(unwritable);
+		setLenient(true);
+	}
+
+	@Override
+	public JsonWriter beginArray() throws IOException {
+		return open(array);
+	}
+
+	@Override
+	public JsonWriter endArray() throws IOException {
+		return close(array);
+	}
+
+	@Override
+	public JsonWriter beginObject() throws IOException {
+		return open(map);
+	}
+
+	@Override
+	public JsonWriter endObject() throws IOException {
+		return close(map);
+	}
+
+	@Override
+	public JsonWriter name(String name) throws IOException {
+		if (depth == 0 || kinds[depth - 1] != map || deferredName != null)
+			throw new IllegalStateException("Unexpected name " + name + ".");
+		deferredName = name;
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(String value) throws IOException {
+		if (value == null)
+			return nullValue();
+		beforeValue();
+		text(value);
+		return this;
+	}
+
+	@Override
+	public JsonWriter jsonValue(String value) throws IOException {
+		if (value == null)
+			return nullValue();
+		Api.json().getAdapter(JsonElement.class).write(this, JsonParser.parseString(value));
+		return this;
+	}
+
+	@Override
+	public JsonWriter nullValue() throws IOException {
+		if (deferredName != null && !getSerializeNulls()) {
+			// Like JsonWriter, the name of a skipped null is dropped as well.
+			deferredName = null;
+			return this;
+		}
+		beforeValue();
+		write(simple << 5 | 22);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(boolean value) throws IOException {
+		beforeValue();
+		write(simple << 5 | (value ? 21 : 20));
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(Boolean value) throws IOException {
+		if (value == null)
+			return nullValue();
+		return value(value.booleanValue());
+	}
+
+	@Override
+	public JsonWriter value(float value) throws IOException {
+		return value((double) value);
+	}
+
+	@Override
+	public JsonWriter value(double value) throws IOException {
+		beforeValue();
+		floating(value);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(long value) throws IOException {
+		beforeValue();
+		integer(value);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(Number value) throws IOException {
+		if (value == null)
+			return nullValue();
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+			return value(value.longValue());
+		if (value instanceof Double || value instanceof Float)
+			return value(value.doubleValue());
+		if (value instanceof BigInteger) {
+			beforeValue();
+			bigInteger((BigInteger) value);
+			return this;
+		}
+		BigDecimal decimal;
+		try {
+			decimal = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+		} catch (NumberFormatException e) {
+			// NaN and infinities.
+			return value(value.doubleValue());
+		}
+		beforeValue();
+		if (decimal.scale() <= 0 && decimal.scale() >= -maxIntegerExponent) {
+			bigInteger(decimal.toBigIntegerExact());
+			return this;
+		}
+		// Lazily parsed numbers use the shorter double when it has the same value,
+		// a BigDecimal always keeps its scale.
+		if (!(value instanceof BigDecimal)) {
+			double approximation = decimal.doubleValue();
+			if (!Double.isInfinite(approximation)
+					&& new BigDecimal(Double.toString(approximation)).compareTo(decimal) == 0) {
+				floating(approximation);
+				return this;
+			}
+		}
+		write(tag << 5 | decimalFraction);
+		write(array << 5 | 2);
+		integer(-(long) decimal.scale());
+		bigInteger(decimal.unscaledValue());
+		return this;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (depth > 0)
+			throw new IOException("Incomplete document.");
+	}
+
+	/**
+	 * @return The written data item. The buffer is not copied.
+	 */
+	ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(buffer, 0, size);
+	}
+
+	private JsonWriter open(int kind) {
+		beforeValue();
+		if (depth == kinds.length) {
+			kinds = Arrays.copyOf(kinds, depth * 2);
+			starts = Arrays.copyOf(starts, depth * 2);
+			counts = Arrays.copyOf(counts, depth * 2);
+		}
+		kinds[depth] = kind;
+		starts[depth] = size;
+		counts[depth] = 0;
+		depth++;
+		write(kind << 5);
+		return this;
+	}
+
+	private JsonWriter close(int kind) {
+		if (depth == 0 || kinds[depth - 1] != kind || deferredName != null)
+			throw new IllegalStateException("Nesting problem.");
+		depth--;
+		int start = starts[depth];
+		int count = counts[depth];
+		int headSize = headSize(count);
+		if (headSize > 1) {
+			// The items were written behind a one byte head, so they move to make room.
+			ensure(headSize - 1);
+			System.arraycopy(buffer, start + 1, buffer, start + headSize, size - start - 1);
+			size += headSize - 1;
+		}
+		int end = size;
+		size = start;
+		head(kind, count);
+		size = end;
+		return this;
+	}
+
+	private void beforeValue() {
+		if (depth == 0)
+			return;
+		if (kinds[depth - 1] == map) {
+			if (deferredName == null)
+				throw new IllegalStateException("Expected a name.");
+			var name = deferredName;
+			deferredName = null;
+			text(name);
+		}
+		counts[depth - 1]++;
+	}
+
+	private void floating(double value) {
+		float single = (float) value;
+		if (single == value || Double.isNaN(value)) {
+			int half = floatToHalf(single);
+			if (half >= 0) {
+				ensure(3);
+				buffer[size++] = (byte) (simple << 5 | 25);
+				buffer[size++] = (byte) (half >>> 8);
+				buffer[size++] = (byte) half;
+				return;
+			}
+			ensure(5);
+			buffer[size++] = (byte) (simple << 5 | 26);
+			int bits = Float.floatToIntBits(single);
+			for (int shift = 24; shift >= 0; shift -= 8)
+				buffer[size++] = (byte) (bits >>> shift);
+			return;
+		}
+		ensure(9);
+		buffer[size++] = (byte) (simple << 5 | 27);
+		long bits = Double.doubleToLongBits(value);
+		for (int shift = 56; shift >= 0; shift -= 8)
+			buffer[size++] = (byte) (bits >>> shift);
+	}
+
+	/**
+	 * @return The half-precision bits of the value or -1 when it is not exactly
+	 *         representable as a half-precision float.
+	 */
+	private static int floatToHalf(float value) {
+		int bits = Float.floatToIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = (bits >>> 23) & 0xff;
+		int mantissa = bits & 0x7fffff;
+		if (exponent == 0xff)
+			return sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0);
+		if (exponent == 0 && mantissa == 0)
+			return sign;
+		int halfExponent = exponent - 127 + 15;
+		if (halfExponent >= 31)
+			return -1;
+		if (halfExponent > 0) {
+			if ((mantissa & 0x1fff) != 0)
+				return -1;
+			return sign | halfExponent << 10 | mantissa >>> 13;
+		}
+		// Subnormal half-precision values.
+		int shift = 14 - halfExponent;
+		if (shift > 24)
+			return -1;
+		int full = mantissa | 0x800000;
+		if ((full & ((1 << shift) - 1)) != 0)
+			return -1;
+		return sign | full >>> shift;
+	}
+
+	private void integer(long value) {
+		if (value >= 0)
+			head(unsignedInt, value);
+		else
+			head(negativeInt, -1 - value);
+	}
+
+	/**
+	 * Writes integers up to 64 bits as regular integers and larger ones as
+	 * bignums.
+	 */
+	private void bigInteger(BigInteger value) {
+		boolean negative = value.signum() < 0;
+		// Negative integers are encoded as -1 - n.
+		var magnitude = negative ? value.not() : value;
+		if (magnitude.bitLength() <= 64) {
+			head(negative ? negativeInt : unsignedInt, magnitude.longValue());
+			return;
+		}
+		var bytes = magnitude.toByteArray();
+		// Drops the sign byte.
+		int offset = bytes[0] == 0 ? 1 : 0;
+		write(tag << 5 | (negative ? negativeBignum : positiveBignum));
+		head(byteString, bytes.length - offset);
+		ensure(bytes.length - offset);
+		System.arraycopy(bytes, offset, buffer, size, bytes.length - offset);
+		size += bytes.length - offset;
+	}
+
+	private void text(String text) {
+		var bytes = text.getBytes(StandardCharsets.UTF_8);
+		head(textString, bytes.length);
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, size, bytes.length);
+		size += bytes.length;
+	}
+
+	private static int headSize(long argument) {
+		if (argument < 0)
+			return 9;
+		if (argument < 24)
+			return 1;
+		if (argument <= 0xff)
+			return 2;
+		if (argument <= 0xffff)
+			return 3;
+		if (argument <= 0xffffffffL)
+			return 5;
+		return 9;
+	}
+
+	private void head(int major, long argument) {
+		ensure(9);
+		int type = major << 5;
+		// Arguments are unsigned, so negative ones need all 8 bytes.
+		if (argument >= 0 && argument < 24) {
+			buffer[size++] = (byte) (type | argument);
+		} else if (argument >= 0 && argument <= 0xff) {
+			buffer[size++] = (byte) (type | 24);
+			buffer[size++] = (byte) argument;
+		} else if (argument >= 0 && argument <= 0xffff) {
+			buffer[size++] = (byte) (type | 25);
+			buffer[size++] = (byte) (argument >>> 8);
+			buffer[size++] = (byte) argument;
+		} else if (argument >= 0 && argument <= 0xffffffffL) {
+			buffer[size++] = (byte) (type | 26);
+			for (int shift = 24; shift >= 0; shift -= 8)
+				buffer[size++] = (byte) (argument >>> shift);
+		} else {
+			buffer[size++] = (byte) (type | 27);
+			for (int shift = 56; shift >= 0; shift -= 8)
+				buffer[size++] = (byte) (argument >>> shift);
+		}
+	}
+
+	private void write(int b) {
+		ensure(1);
+		buffer[size++] = (byte) b;
+	}
+
+	private void ensure(int additional) {
+		if (size + additional > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+	}
+}
@@ -0,0 +1,134 @@
+package org.codegame.client;
+
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A bounded queue of serialized commands with a single writer.
+ *
+ * The JDK websocket only allows one outstanding send at a time. Instead of
+ * making every caller wait for its own write, commands are queued and the
+ * writer sends all commands that are queued at that moment back to back,
+ * starting the next write as soon as the previous one has completed.
+ */
+class CommandQueue {
+	private static class Command {
+		/**
+		 * Either a String for a text frame or a ByteBuffer for a binary frame.
+		 */
+		final Object frame;
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		Command(Object frame) {
+			this.frame = frame;
+		}
+	}
+
+	private final WebSocket websocket;
+	private final Backpressure backpressure;
+	private final ArrayBlockingQueue<Command> queue;
+	private final AtomicBoolean writing = new AtomicBoolean();
+	private volatile boolean closed;
+
+	CommandQueue(WebSocket websocket, int capacity, Backpressure backpressure) {
+		this.websocket = websocket;
+		this.backpressure = backpressure;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * Queues a serialized command.
+	 *
+	 * @param frame Either a String for a text frame or a ByteBuffer for a binary
+	 *              frame.
+	 * @return A future that completes when the command has been written.
+	 */
+	CompletableFuture<Void> offer(Object frame) {
+		if (closed)
+			return CompletableFuture.failedFuture(new IllegalStateException("The socket is closed."));
+		var command = new Command(frame);
+		switch (backpressure) {
+			case BLOCK:
+				try {
+					queue.put(command);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return CompletableFuture.failedFuture(e);
+				}
+				break;
+			case DROP_OLDEST:
+				while (!queue.offer(command)) {
+					var dropped = queue.poll();
+					if (dropped != null)
+						dropped.future.completeExceptionally(
+								new IllegalStateException("The command was dropped because the outbound queue is full."));
+				}
+				break;
+			case FAIL:
+				if (!queue.offer(command))
+					return CompletableFuture.failedFuture(new IllegalStateException("The outbound queue is full."));
+				break;
+		}
+		drain();
+		return command.future;
+	}
+
+	/**
+	 * Fails all commands that have not been written yet and rejects new ones.
+	 */
+	void close() {
+		closed = true;
+		Command command;
+		while ((command = queue.poll()) != null) {
+			command.future.completeExceptionally(new IllegalStateException("The socket is closed."));
+		}
+	}
+
+	private void drain() {
+		while (writing.compareAndSet(false, true)) {
+			var command = queue.poll();
+			if (command == null) {
+				writing.set(false);
+				// Another thread may have queued a command after the poll.
+				if (queue.isEmpty())
+					return;
+				continue;
+			}
+
+			var sent = write(command);
+			if (sent.isDone()) {
+				complete(command, sent);
+				writing.set(false);
+				continue;
+			}
+			sent.whenComplete((ws, e) -> {
+				complete(command, sent);
+				writing.set(false);
+				drain();
+			});
+			return;
+		}
+	}
+
+	private CompletableFuture<WebSocket> write(Command command) {
+		try {
+			if (command.frame instanceof ByteBuffer)
+				return websocket.sendBinary((ByteBuffer) command.frame, true);
+			return websocket.sendText((String) command.frame, true);
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private static void complete(Command command, CompletableFuture<WebSocket> sent) {
+		sent.whenComplete((ws, e) -> {
+			if (e != null)
+				command.future.completeExceptionally(e);
+			else
+				command.future.complete(null);
+		});
+	}
+}
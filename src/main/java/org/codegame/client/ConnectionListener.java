@@ -0,0 +1,31 @@
+package org.codegame.client;
+
+import java.time.Duration;
+
+/**
+ * Receives changes of the connection state of a {@link GameSocket}. All methods
+ * do nothing by default.
+ */
+public interface ConnectionListener {
+	/**
+	 * Called when the socket has connected or reconnected to the game.
+	 */
+	default void connected() {
+	}
+
+	/**
+	 * Called when the connection was lost and a reconnect attempt is scheduled.
+	 *
+	 * @param attempt The number of the attempt, starting at 1.
+	 * @param delay   The time until the attempt is made.
+	 */
+	default void reconnecting(int attempt, Duration delay) {
+	}
+
+	/**
+	 * Called when the socket is closed for good, either because it was closed
+	 * normally or because reconnecting failed.
+	 */
+	default void disconnected() {
+	}
+}
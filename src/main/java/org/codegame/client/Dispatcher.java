@@ -0,0 +1,108 @@
+package org.codegame.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decides on which thread the callbacks of a received event run.
+ */
+@FunctionalInterface
+public interface Dispatcher {
+	/**
+	 * Runs the callbacks of a received event.
+	 *
+	 * @param eventName The name of the event.
+	 * @param task      Calls all callbacks of the event.
+	 */
+	void dispatch(String eventName, Runnable task);
+
+	/**
+	 * Releases the threads of the dispatcher. Sockets never close their
+	 * dispatcher because it may be shared.
+	 */
+	default void close() {
+	}
+
+	/**
+	 * Runs callbacks directly on the websocket thread. No further events are read
+	 * until all callbacks have returned. This is the default.
+	 *
+	 * @return The dispatcher.
+	 */
+	static Dispatcher inline() {
+		return (eventName, task) -> task.run();
+	}
+
+	/**
+	 * Runs callbacks on a dedicated thread in the order in which the events were
+	 * received.
+	 *
+	 * @return The dispatcher.
+	 */
+	static Dispatcher eventLoop() {
+		ExecutorService executor = Executors.newSingleThreadExecutor((runnable) -> {
+			var thread = new Thread(runnable, "codegame-event-loop");
+			thread.setDaemon(true);
+			return thread;
+		});
+		return new Dispatcher() {
+			@Override
+			public void dispatch(String eventName, Runnable task) {
+				executor.execute(() -> runReporting(task));
+			}
+
+			@Override
+			public void close() {
+				executor.shutdown();
+			}
+		};
+	}
+
+	/**
+	 * Runs callbacks on the executor in the order in which the events were
+	 * received, like {@link #eventLoop()} but without a thread of its own. Many
+	 * sockets can each use their own serial dispatcher on one shared executor.
+	 *
+	 * @param executor The executor that runs the callbacks.
+	 * @return The dispatcher.
+	 */
+	static Dispatcher serial(Executor executor) {
+		var serialExecutor = new SerialExecutor(executor);
+		return (eventName, task) -> serialExecutor.execute(task);
+	}
+
+	/**
+	 * Runs callbacks on the executor. Events with the same name are handled in
+	 * the order in which they were received, events with different names run
+	 * concurrently. On Java 21 and newer
+	 * {@code Executors.newVirtualThreadPerTaskExecutor()} is a good fit.
+	 *
+	 * @param executor The executor that runs the callbacks.
+	 * @return The dispatcher.
+	 */
+	static Dispatcher perEvent(Executor executor) {
+		var queues = new ConcurrentHashMap<String, SerialExecutor>();
+		return (eventName, task) -> queues.computeIfAbsent(eventName, (name) -> new SerialExecutor(executor))
+				.execute(task);
+	}
+
+	/**
+	 * Runs callbacks on the executor without any ordering guarantees.
+	 *
+	 * @param executor The executor that runs the callbacks.
+	 * @return The dispatcher.
+	 */
+	static Dispatcher executor(Executor executor) {
+		return (eventName, task) -> executor.execute(() -> runReporting(task));
+	}
+
+	private static void runReporting(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+import com.google.gson.TypeAdapter;
+
+/**
+ * Encodes and decodes events and commands on the wire.
+ *
+ * Event data is always bound with Gson type adapters so that the same event
+ * classes work with every codec. The default codec is {@link #json()}. Other
+ * codecs are selected by offering their websocket subprotocol to the server,
+ * see {@link GameSocket#setCodec(EventCodec)}.
+ *
+ * Codecs only implement the methods of the frame type they use. The others
+ * throw a {@link ProtocolException}, which the socket reports like any other
+ * malformed frame.
+ */
+public interface EventCodec {
+	/**
+	 * Looks up the type adapter of the listeners of an event.
+	 */
+	@FunctionalInterface
+	interface AdapterLookup {
+		/**
+		 * @param eventName The name of the event.
+		 * @return The adapter for the event data or null when nobody listens for the
+		 *         event, in which case its data should be skipped.
+		 */
+		TypeAdapter<?> adapterFor(String eventName);
+	}
+
+	/**
+	 * @return The websocket subprotocol that selects this codec or null for the
+	 *         default JSON text protocol.
+	 */
+	String getSubprotocol();
+
+	/**
+	 * @return Whether this codec uses binary frames.
+	 */
+	boolean isBinary();
+
+	/**
+	 * Decodes a text frame.
+	 *
+	 * @param message   The complete message. It may be a reused buffer and must
+	 *                  not be referenced after this method returns.
+	 * @param listeners The adapters of the registered listeners.
+	 * @return The event or null when nobody listens for it.
+	 * @throws IOException Thrown when the message is malformed or the codec does
+	 *                     not support text frames.
+	 */
+	default GameSocket.Event<?> decodeText(CharSequence message, AdapterLookup listeners) throws IOException {
+		throw new ProtocolException("The codec does not support text frames.");
+	}
+
+	/**
+	 * Decodes a binary frame.
+	 *
+	 * @param message   The complete message. It may be a reused buffer and must
+	 *                  not be referenced after this method returns.
+	 * @param listeners The adapters of the registered listeners.
+	 * @return The event or null when nobody listens for it.
+	 * @throws IOException Thrown when the message is malformed or the codec does
+	 *                     not support binary frames.
+	 */
+	default GameSocket.Event<?> decodeBinary(ByteBuffer message, AdapterLookup listeners) throws IOException {
+		throw new ProtocolException("The codec does not support binary frames.");
+	}
+
+	/**
+	 * Encodes a command as a text frame.
+	 *
+	 * @param name The name of the command.
+	 * @param data The command data.
+	 * @return The frame.
+	 * @throws IOException Thrown when the data cannot be encoded or the codec
+	 *                     does not support text frames.
+	 */
+	default String encodeText(String name, Object data) throws IOException {
+		throw new ProtocolException("The codec does not support text frames.");
+	}
+
+	/**
+	 * Encodes a command as a binary frame.
+	 *
+	 * @param name The name of the command.
+	 * @param data The command data.
+	 * @return The frame.
+	 * @throws IOException Thrown when the data cannot be encoded or the codec
+	 *                     does not support binary frames.
+	 */
+	default ByteBuffer encodeBinary(String name, Object data) throws IOException {
+		throw new ProtocolException("The codec does not support binary frames.");
+	}
+
+	/**
+	 * Splits a text frame into the event name and the raw data without decoding
+	 * the data.
+	 *
+	 * @param message The complete message. It may be a reused buffer and must not
+	 *                be referenced after this method returns.
+	 * @return The event with a copy of its raw data.
+	 * @throws IOException Thrown when the message is malformed or the codec does
+	 *                     not support raw events.
+	 */
+	default RawEvent scanText(CharSequence message) throws IOException {
+		throw new ProtocolException("The codec does not support raw events.");
+	}
+
+	/**
+	 * Splits a binary frame into the event name and the raw data without decoding
+	 * the data.
+	 *
+	 * @param message The complete message. It may be a reused buffer and must not
+	 *                be referenced after this method returns.
+	 * @return The event with a copy of its raw data.
+	 * @throws IOException Thrown when the message is malformed or the codec does
+	 *                     not support raw events.
+	 */
+	default RawEvent scanBinary(ByteBuffer message) throws IOException {
+		throw new ProtocolException("The codec does not support raw events.");
+	}
+
+	/**
+	 * Decodes the raw data of an event split by {@link #scanText(CharSequence)}.
+	 *
+	 * @param <T>     The type of the data.
+	 * @param data    The raw data.
+	 * @param adapter The adapter of the data type.
+	 * @return The data.
+	 * @throws IOException Thrown when the data is malformed or the codec does not
+	 *                     support raw events.
+	 */
+	default <T> T decodeTextData(CharSequence data, TypeAdapter<T> adapter) throws IOException {
+		throw new ProtocolException("The codec does not support raw events.");
+	}
+
+	/**
+	 * Decodes the raw data of an event split by {@link #scanBinary(ByteBuffer)}.
+	 *
+	 * @param <T>     The type of the data.
+	 * @param data    The raw data. Its position may be changed.
+	 * @param adapter The adapter of the data type.
+	 * @return The data.
+	 * @throws IOException Thrown when the data is malformed or the codec does not
+	 *                     support raw events.
+	 */
+	default <T> T decodeBinaryData(ByteBuffer data, TypeAdapter<T> adapter) throws IOException {
+		throw new ProtocolException("The codec does not support raw events.");
+	}
+
+	/**
+	 * @return The default codec, which sends events as JSON text frames.
+	 */
+	static EventCodec json() {
+		return JsonCodec.instance;
+	}
+
+	/**
+	 * @return A codec that sends events as CBOR (RFC 8949) binary frames. It is
+	 *         selected with the {@code cbor} websocket subprotocol.
+	 */
+	static EventCodec cbor() {
+		return CborCodec.instance;
+	}
+}
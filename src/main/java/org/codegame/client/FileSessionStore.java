@@ -0,0 +1,419 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Stores all sessions in a single JSON file.
+ *
+ * The file is read once into memory, so loading and listing sessions does not
+ * touch the disk unless another process has changed the file since. Saved and
+ * removed sessions are collected and written together shortly afterwards on a
+ * background thread, when the store is closed and when the JVM shuts down.
+ * Every write merges the changes into the current content of the file under a
+ * file lock, writes and syncs a temporary file and renames it over the old
+ * one, so a crash never leaves a truncated file behind and several processes
+ * can share one store.
+ *
+ * The default store also reads sessions from the one-file-per-session layout
+ * of older versions and moves them into the new file.
+ */
+public class FileSessionStore implements SessionStore, AutoCloseable {
+	private static final long writeDelayMillis = 200;
+	private static final long checkIntervalNanos = 1_000_000_000;
+
+	// The stores that are flushed when the JVM shuts down. Stores with unwritten
+	// changes are still referenced by their scheduled write.
+	private static final Set<FileSessionStore> open = Collections
+			.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			List<FileSessionStore> stores;
+			synchronized (open) {
+				stores = new ArrayList<>(open);
+			}
+			for (var store : stores) {
+				try {
+					store.flush();
+				} catch (IOException e) {
+					System.err.println("ERROR: Failed to write sessions: " + e.getMessage());
+				}
+			}
+		}, "codegame-session-store"));
+	}
+
+	/**
+	 * Writes the files of all stores. Writing waits for the file lock of other
+	 * processes and for the disk, which must not hold up the timers of the
+	 * sockets, so the scheduler only hands the write over.
+	 */
+	private static class WriteExecutor {
+		static final ExecutorService instance = Executors.newSingleThreadExecutor((runnable) -> {
+			var thread = new Thread(runnable, "codegame-session-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static class DefaultStore {
+		static final FileSessionStore instance = new FileSessionStore(
+				Path.of(Dirs.DataHome(), "codegame", "sessions.json"), Path.of(Dirs.DataHome(), "codegame", "games"));
+	}
+
+	private static class Entry {
+		@SerializedName("game_id")
+		String gameId;
+		@SerializedName("player_id")
+		String playerId;
+		@SerializedName("player_secret")
+		String playerSecret;
+	}
+
+	private static class Contents {
+		@SerializedName("version")
+		int version = 1;
+		@SerializedName("games")
+		HashMap<String, HashMap<String, Entry>> games = new HashMap<>();
+	}
+
+	private final Path file;
+	private final Path legacyDir;
+	private final Object lock = new Object();
+	private final Object writeLock = new Object();
+	// All fields below are guarded by lock.
+	private HashMap<String, HashMap<String, Entry>> games;
+	// Changes that have not been written yet. A null entry marks a removed session.
+	private HashMap<String, HashMap<String, Entry>> pending = new HashMap<>();
+	private final HashSet<String> importedLegacyGames = new HashSet<>();
+	private FileTime loadedModified;
+	private long lastCheck;
+	private ScheduledFuture<?> writeTask;
+
+	/**
+	 * @return The store in the data directory of the user, which is used by
+	 *         default.
+	 */
+	public static FileSessionStore getDefault() {
+		return DefaultStore.instance;
+	}
+
+	/**
+	 * Creates a store in the file. The file and its directory are created with
+	 * the first session.
+	 *
+	 * @param file The file of the store.
+	 */
+	public FileSessionStore(Path file) {
+		this(file, null);
+	}
+
+	/**
+	 * @param legacyDir The directory of session files of older versions or null.
+	 */
+	FileSessionStore(Path file, Path legacyDir) {
+		this.file = file;
+		this.legacyDir = legacyDir;
+		open.add(this);
+	}
+
+	@Override
+	public Session load(String gameURL, String username) throws IOException {
+		synchronized (lock) {
+			prepare(gameURL, false);
+			var entry = find(gameURL, username);
+			if (entry == null) {
+				// Another process may have saved the session just now.
+				prepare(gameURL, true);
+				entry = find(gameURL, username);
+			}
+			if (entry == null)
+				throw new NoSuchFileException("No session of " + username + " for " + gameURL + ".");
+			return new Session(gameURL, username, entry.gameId, entry.playerId, entry.playerSecret);
+		}
+	}
+
+	private Entry find(String gameURL, String username) {
+		var players = games.get(gameURL);
+		return players == null ? null : players.get(username);
+	}
+
+	@Override
+	public void save(Session session) throws IOException {
+		if (session.gameURL.isEmpty() || session.username.isEmpty() || session.gameId.isEmpty()
+				|| session.playerId.isEmpty() || session.playerSecret.isEmpty())
+			throw new IllegalArgumentException("Incomplete session.");
+		var entry = new Entry();
+		entry.gameId = session.gameId;
+		entry.playerId = session.playerId;
+		entry.playerSecret = session.playerSecret;
+		synchronized (lock) {
+			prepare(session.gameURL, false);
+			change(session.gameURL, session.username, entry);
+		}
+	}
+
+	@Override
+	public void remove(String gameURL, String username) throws IOException {
+		synchronized (lock) {
+			prepare(gameURL, false);
+			change(gameURL, username, null);
+		}
+		if (legacyDir != null) {
+			var dir = legacyDir.resolve(URLEncoder.encode(gameURL, StandardCharsets.UTF_8));
+			Files.deleteIfExists(dir.resolve(username + ".json"));
+			try (var files = Files.list(dir)) {
+				if (files.findAny().isEmpty())
+					Files.deleteIfExists(dir);
+			} catch (IOException e) {
+				// The directory does not exist or is being used.
+			}
+		}
+	}
+
+	@Override
+	public List<Session> list(String gameURL) throws IOException {
+		synchronized (lock) {
+			prepare(gameURL, false);
+			var sessions = new ArrayList<Session>();
+			var players = games.get(gameURL);
+			if (players != null) {
+				for (var player : players.entrySet()) {
+					var entry = player.getValue();
+					sessions.add(new Session(gameURL, player.getKey(), entry.gameId, entry.playerId,
+							entry.playerSecret));
+				}
+			}
+			return sessions;
+		}
+	}
+
+	/**
+	 * Writes all saved and removed sessions now instead of waiting for the
+	 * background write.
+	 */
+	@Override
+	public void flush() throws IOException {
+		synchronized (writeLock) {
+			HashMap<String, HashMap<String, Entry>> changes;
+			synchronized (lock) {
+				if (pending.isEmpty())
+					return;
+				changes = pending;
+				pending = new HashMap<>();
+				if (writeTask != null)
+					writeTask.cancel(false);
+				writeTask = null;
+			}
+			try {
+				write(changes);
+			} catch (IOException | RuntimeException e) {
+				synchronized (lock) {
+					// Keep the changes, later changes of the same sessions take precedence.
+					apply(pending, changes, false);
+					pending = changes;
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Writes all saved and removed sessions and stops flushing the store when
+	 * the JVM shuts down. The store can still be used afterwards, but its changes
+	 * are only written by {@link #flush()} and the background write.
+	 */
+	@Override
+	public void close() throws IOException {
+		open.remove(this);
+		flush();
+	}
+
+	/**
+	 * Loads the file on first use or when it was changed by another process and
+	 * imports legacy sessions of the game URL. Changes by other processes are
+	 * only looked for once per second unless forced.
+	 */
+	private void prepare(String gameURL, boolean force) throws IOException {
+		long now = System.nanoTime();
+		if (games == null || force || now - lastCheck > checkIntervalNanos) {
+			lastCheck = now;
+			var modified = lastModified();
+			if (games == null || (modified != null && !modified.equals(loadedModified))) {
+				games = read();
+				loadedModified = modified;
+				apply(pending, games, true);
+			}
+		}
+		if (legacyDir != null && importedLegacyGames.add(gameURL))
+			importLegacy(gameURL);
+	}
+
+	private void change(String gameURL, String username, Entry entry) {
+		pending.computeIfAbsent(gameURL, (key) -> new HashMap<>()).put(username, entry);
+		var players = games.computeIfAbsent(gameURL, (key) -> new HashMap<>());
+		if (entry == null)
+			players.remove(username);
+		else
+			players.put(username, entry);
+		if (writeTask == null) {
+			writeTask = Scheduler.instance.schedule(() -> WriteExecutor.instance.execute(() -> {
+				try {
+					flush();
+				} catch (IOException e) {
+					System.err.println("ERROR: Failed to write sessions: " + e.getMessage());
+				}
+			}), writeDelayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Applies changes to sessions. Removals are applied when removing is true,
+	 * otherwise they are kept as null entries.
+	 */
+	private static void apply(Map<String, HashMap<String, Entry>> changes, Map<String, HashMap<String, Entry>> games,
+			boolean removing) {
+		for (var game : changes.entrySet()) {
+			var players = games.computeIfAbsent(game.getKey(), (key) -> new HashMap<>());
+			for (var player : game.getValue().entrySet()) {
+				if (player.getValue() == null && removing)
+					players.remove(player.getKey());
+				else
+					players.put(player.getKey(), player.getValue());
+			}
+			if (players.isEmpty())
+				games.remove(game.getKey());
+		}
+	}
+
+	private FileTime lastModified() throws IOException {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	private HashMap<String, HashMap<String, Entry>> read() throws IOException {
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			var contents = Api.json().fromJson(reader, Contents.class);
+			if (contents == null || contents.games == null)
+				return new HashMap<>();
+			return contents.games;
+		} catch (NoSuchFileException e) {
+			return new HashMap<>();
+		} catch (JsonParseException e) {
+			throw new IOException("Invalid session store " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+	private void write(HashMap<String, HashMap<String, Entry>> changes) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		var lockFile = file.resolveSibling(file.getFileName() + ".lock");
+		try (var lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			// Closing the channel releases the lock.
+			lockChannel.lock();
+			// Other processes may have written the file since it was read.
+			HashMap<String, HashMap<String, Entry>> current;
+			try {
+				current = read();
+			} catch (IOException e) {
+				System.err.println("WARNING: " + e.getMessage() + " It is overwritten.");
+				current = new HashMap<>();
+			}
+			apply(changes, current, true);
+			var contents = new Contents();
+			contents.games = current;
+
+			var temp = file.resolveSibling(file.getFileName() + ".tmp");
+			var data = ByteBuffer.wrap(Api.json().toJson(contents).getBytes(StandardCharsets.UTF_8));
+			try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (data.hasRemaining())
+					channel.write(data);
+				// The content has to be on the disk before the rename is.
+				channel.force(true);
+			}
+			try {
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+			syncDirectory();
+
+			synchronized (lock) {
+				games = current;
+				loadedModified = lastModified();
+				apply(pending, games, true);
+			}
+		}
+	}
+
+	/**
+	 * Makes the rename durable where the platform can sync a directory.
+	 */
+	private void syncDirectory() {
+		try (var channel = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// Directories cannot be opened or synced on this platform.
+		}
+	}
+
+	private void importLegacy(String gameURL) {
+		var dir = legacyDir.resolve(URLEncoder.encode(gameURL, StandardCharsets.UTF_8));
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.json")) {
+			for (var path : files) {
+				var name = path.getFileName().toString();
+				var username = name.substring(0, name.length() - ".json".length());
+				var players = games.get(gameURL);
+				if (players != null && players.containsKey(username))
+					continue;
+				var legacy = readLegacy(path);
+				if (legacy != null)
+					change(gameURL, username, legacy);
+			}
+		} catch (IOException e) {
+			// There are no legacy sessions for the game.
+		}
+	}
+
+	private static Entry readLegacy(Path path) {
+		try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			var entry = Api.json().fromJson(reader, Entry.class);
+			if (entry == null || entry.gameId == null || entry.gameId.isEmpty() || entry.playerId == null
+					|| entry.playerId.isEmpty() || entry.playerSecret == null || entry.playerSecret.isEmpty())
+				return null;
+			return entry;
+		} catch (IOException | JsonParseException e) {
+			return null;
+		}
+	}
+}
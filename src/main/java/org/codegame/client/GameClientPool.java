@@ -0,0 +1,307 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.net.http.WebSocketHandshakeException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many players of one game server in a single process, e.g. for load
+ * tests.
+ *
+ * All sockets of a pool share one {@link Api} with its HTTP client and cached
+ * game info, and run their callbacks on one executor. The server version is
+ * checked once for the whole pool. Every socket is a regular
+ * {@link GameSocket} with its own listeners, and sockets that are closed for
+ * good leave the pool.
+ */
+public class GameClientPool implements AutoCloseable {
+	private final Api api;
+	private final Executor executor;
+	private final ExecutorService ownExecutor;
+	private final Set<GameSocket> sockets = ConcurrentHashMap.newKeySet();
+	private Metrics metrics = Metrics.noop();
+	private int outboundQueueCapacity = 64;
+	private Backpressure backpressure = Backpressure.BLOCK;
+	private SessionStore sessionStore = FileSessionStore.getDefault();
+
+	/**
+	 * Creates a pool that runs callbacks on one thread per processor.
+	 *
+	 * @param url The URL of the game server. When the protocol is omitted, it is
+	 *            detected automatically.
+	 * @throws IOException Thrown when the URL does not point to a valid CodeGame
+	 *                     game server.
+	 */
+	public GameClientPool(String url) throws IOException {
+		this(new Api(url), null);
+	}
+
+	/**
+	 * Creates a pool that runs callbacks on the executor. Events of one socket are
+	 * still handled in the order in which they were received. On Java 21 and
+	 * newer {@code Executors.newVirtualThreadPerTaskExecutor()} is a good fit.
+	 *
+	 * @param api      The Api instance of the game server.
+	 * @param executor The executor that runs the callbacks or null to use one
+	 *                 thread per processor. It is not shut down by the pool.
+	 * @throws IOException Thrown when the URL does not point to a valid CodeGame
+	 *                     game server.
+	 */
+	public GameClientPool(Api api, Executor executor) throws IOException {
+		this.api = api;
+		GameSocket.checkVersion(api.info());
+		if (executor == null) {
+			this.ownExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					(runnable) -> {
+						var thread = new Thread(runnable, "codegame-pool");
+						thread.setDaemon(true);
+						return thread;
+					});
+			this.executor = ownExecutor;
+		} else {
+			this.ownExecutor = null;
+			this.executor = executor;
+		}
+	}
+
+	/**
+	 * Creates a socket that is not connected yet. The socket has already been
+	 * added to the pool.
+	 *
+	 * @return The socket.
+	 */
+	public GameSocket newSocket() {
+		var socket = new GameSocket(api, null);
+		socket.setDispatcher(Dispatcher.serial(executor));
+		socket.setMetrics(metrics);
+		socket.setOutboundQueue(outboundQueueCapacity, backpressure);
+		socket.setSessionStore(sessionStore);
+		socket.addConnectionListener(new ConnectionListener() {
+			@Override
+			public void disconnected() {
+				sockets.remove(socket);
+			}
+		});
+		sockets.add(socket);
+		return socket;
+	}
+
+	/**
+	 * Creates a new player in the game and connects a new socket to it.
+	 *
+	 * @param gameId     The ID of the game.
+	 * @param username   The desired username.
+	 * @param joinSecret The join secret of the game or an empty string.
+	 * @return A future that completes with the connected socket.
+	 */
+	public CompletableFuture<GameSocket> joinAsync(String gameId, String username, String joinSecret) {
+		var socket = newSocket();
+		return socket.joinAsync(gameId, username, joinSecret).whenComplete((result, e) -> {
+			if (e != null)
+				sockets.remove(socket);
+		}).thenApply((result) -> socket);
+	}
+
+	/**
+	 * Connects a new socket to a game as a spectator.
+	 *
+	 * @param gameId The ID of the game.
+	 * @return A future that completes with the connected socket.
+	 */
+	public CompletableFuture<GameSocket> spectateAsync(String gameId) {
+		var socket = newSocket();
+		return socket.spectateAsync(gameId).whenComplete((result, e) -> {
+			if (e != null)
+				sockets.remove(socket);
+		}).thenApply((result) -> socket);
+	}
+
+	/**
+	 * Reconnects all players whose sessions are stored for the URL of the game
+	 * server. Sessions are restored concurrently, and the players of every game
+	 * are fetched once for all of its sessions. Sessions the server rejects, e.g.
+	 * because the game has ended, are removed from the session store. Sessions
+	 * that fail for other reasons, like network errors, are kept.
+	 *
+	 * @param parallelism The maximum number of sessions that are restored at the
+	 *                    same time.
+	 * @return A future that completes with the outcome of every session once all
+	 *         of them have been tried.
+	 */
+	public CompletableFuture<RestoreReport> restoreSessions(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("The parallelism must be at least 1.");
+		List<Session> sessions;
+		try {
+			sessions = sessionStore != null ? sessionStore.list(api.getURL()) : List.of();
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		var restore = new Restore(sessions);
+		if (sessions.isEmpty())
+			restore.report.complete(new RestoreReport(new ArrayList<>(), Duration.ZERO));
+		for (int i = 0; i < Math.min(parallelism, sessions.size()); i++)
+			restore.next();
+		return restore.report;
+	}
+
+	/**
+	 * Restores sessions one after another. Running it several times at once
+	 * restores sessions in parallel. Each outcome is handled on the executor of
+	 * the pool, so that a session that fails right away does not start the next
+	 * one on the same stack, and removing a session from the store does not block
+	 * the thread that completed the connection.
+	 */
+	private class Restore {
+		final List<Session> sessions;
+		final RestoreReport.Result[] results;
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final AtomicInteger remaining;
+		final ConcurrentHashMap<String, CompletableFuture<HashMap<String, String>>> players = new ConcurrentHashMap<>();
+		final long start = System.nanoTime();
+		final CompletableFuture<RestoreReport> report = new CompletableFuture<>();
+
+		Restore(List<Session> sessions) {
+			this.sessions = sessions;
+			this.results = new RestoreReport.Result[sessions.size()];
+			this.remaining = new AtomicInteger(sessions.size());
+		}
+
+		void next() {
+			int index = nextIndex.getAndIncrement();
+			if (index >= sessions.size())
+				return;
+			var session = sessions.get(index);
+			long sessionStart = System.nanoTime();
+			var socket = newSocket();
+			CompletableFuture<Void> connected;
+			try {
+				connected = socket.connectAsync(session.gameId, session.playerId, session.playerSecret,
+						players.computeIfAbsent(session.gameId, api::fetchPlayersAsync));
+			} catch (RuntimeException e) {
+				connected = CompletableFuture.failedFuture(e);
+			}
+			connected.whenCompleteAsync((result, e) -> {
+				var error = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+				boolean pruned = false;
+				if (error != null) {
+					sockets.remove(socket);
+					if (isRejection(error)) {
+						try {
+							sessionStore.remove(session.gameURL, session.username);
+							pruned = true;
+						} catch (IOException e2) {
+							System.err.println("ERROR: Failed to remove session: " + e2.getMessage());
+						}
+					}
+				}
+				results[index] = new RestoreReport.Result(session, error == null ? socket : null, error, pruned,
+						Duration.ofNanos(System.nanoTime() - sessionStart));
+				if (remaining.decrementAndGet() == 0)
+					report.complete(new RestoreReport(Arrays.asList(results), Duration.ofNanos(System.nanoTime() - start)));
+				else
+					next();
+			}, executor);
+		}
+	}
+
+	/**
+	 * @return Whether the server refused the session rather than being
+	 *         unreachable.
+	 */
+	private static boolean isRejection(Throwable error) {
+		int statusCode = -1;
+		if (error instanceof HttpStatusException)
+			statusCode = ((HttpStatusException) error).getStatusCode();
+		else if (error instanceof WebSocketHandshakeException)
+			statusCode = ((WebSocketHandshakeException) error).getResponse().statusCode();
+		return statusCode >= 400 && statusCode < 500;
+	}
+
+	/**
+	 * Sets the store from which sessions are restored and in which the sessions
+	 * of sockets that are created afterwards are saved. Defaults to
+	 * {@link FileSessionStore#getDefault()}.
+	 *
+	 * @param sessionStore The session store or null to not save sessions, e.g.
+	 *                     for load tests. There is nothing to restore then.
+	 */
+	public void setSessionStore(SessionStore sessionStore) {
+		this.sessionStore = sessionStore;
+	}
+
+	/**
+	 * Sets the metrics of the shared Api and of all sockets that are created
+	 * afterwards.
+	 *
+	 * @param metrics The metrics.
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+		api.setMetrics(metrics);
+	}
+
+	/**
+	 * Configures the outbound queue of sockets that are created afterwards. The
+	 * capacity defaults to 64, which is lower than for a single socket to keep the
+	 * memory per connection small. With {@link Backpressure#BLOCK}, the default,
+	 * a thread that sends the commands of many sockets waits for the slowest of
+	 * them, so load tests should rather use {@link Backpressure#FAIL}.
+	 *
+	 * @param capacity     The maximum number of queued commands per socket.
+	 * @param backpressure What to do when a command is sent while the queue is
+	 *                     full.
+	 */
+	public void setOutboundQueue(int capacity, Backpressure backpressure) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity must be at least 1.");
+		this.outboundQueueCapacity = capacity;
+		this.backpressure = backpressure;
+	}
+
+	/**
+	 * @return The Api instance shared by all sockets.
+	 */
+	public Api getApi() {
+		return api;
+	}
+
+	/**
+	 * @return The sockets that have not been closed for good.
+	 */
+	public List<GameSocket> getSockets() {
+		return new ArrayList<>(sockets);
+	}
+
+	/**
+	 * @return The number of sockets that have not been closed for good.
+	 */
+	public int size() {
+		return sockets.size();
+	}
+
+	/**
+	 * Closes all sockets concurrently and waits until they are closed.
+	 */
+	@Override
+	public void close() {
+		var closing = new ArrayList<CompletableFuture<Void>>();
+		for (var socket : sockets)
+			closing.add(CompletableFuture.runAsync(socket::close, executor));
+		CompletableFuture.allOf(closing.toArray(new CompletableFuture<?>[0])).join();
+		if (ownExecutor != null)
+			ownExecutor.shutdown();
+	}
+}
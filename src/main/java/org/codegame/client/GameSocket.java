@@ -1,10 +1,22 @@
 package org.codegame.client;
 
 import java.io.IOException;
+import java.net.http.HttpClient;
 import java.net.http.WebSocket;
-import java.util.HashMap;
-import java.util.UUID;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.reflect.TypeToken;
@@ -24,42 +36,185 @@ public class GameSocket {
 		void cb(T data);
 	}
 
-	private class Callbacks<T> {
-		Class<T> type;
-		HashMap<String, EventCallback<T>> callbacks;
+	private Api api;
+	private Session session = new Session();
+	private volatile WebSocket websocket;
+	private volatile CommandQueue commandQueue;
+	private int outboundQueueCapacity = 1024;
+	private Backpressure backpressure = Backpressure.BLOCK;
+	private Dispatcher dispatcher = Dispatcher.inline();
+	private int maxInFlight = 64;
+	private int maxMessageSize = 16 * 1024 * 1024;
+	private Duration heartbeatInterval = Duration.ofSeconds(15);
+	private int maxMissedPongs = 3;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private WSClient client;
+	private Metrics metrics = Metrics.noop();
+	private SessionStore sessionStore = FileSessionStore.getDefault();
+	private volatile Recorder recorder;
+	/**
+	 * The name of the last event the codec looked up, which is known even when
+	 * the event is not decoded. Only accessed by the thread that reads messages.
+	 */
+	private String decodedName;
+	private EventCodec codec = EventCodec.json();
+	private volatile EventCodec negotiatedCodec = EventCodec.json();
+	private final UsernameCache usernameCache = new UsernameCache(
+			(String playerId) -> api.fetchUsernameAsync(session.gameId, playerId), 10_000);
+	private final ListenerRegistry eventListeners = new ListenerRegistry();
+	private final ListenerRegistry rawListeners = new ListenerRegistry(false);
+	private static final TypeToken<RawEvent> rawEventType = TypeToken.get(RawEvent.class);
+	private final EventCodec.AdapterLookup listenerAdapters = (String eventName) -> {
+		decodedName = eventName;
+		var callbacks = eventListeners.get(eventName);
+		if (callbacks == null) {
+			// Codecs stop decoding events without listeners as soon as the name is known.
+			if (rawListeners.get(eventName) == null)
+				metrics.eventDropped(eventName);
+			return null;
+		}
+		return callbacks.adapter;
+	};
+	private CountDownLatch exitEvent = new CountDownLatch(1);
+	private volatile ReconnectPolicy reconnectPolicy;
+	private final CopyOnWriteArrayList<ConnectionListener> connectionListeners = new CopyOnWriteArrayList<>();
+	private final Object connectionLock = new Object();
+	private boolean reconnecting;
+	private ArrayDeque<PendingCommand> pendingCommands = new ArrayDeque<>();
+	private ScheduledFuture<?> reconnectTask;
+	private volatile boolean closing;
 
-		Callbacks(Class<T> type) {
-			this.type = type;
-			this.callbacks = new HashMap<>();
+	/**
+	 * A command that was sent while the socket was reconnecting.
+	 */
+	private static class PendingCommand {
+		final String name;
+		final Object data;
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		PendingCommand(String name, Object data) {
+			this.name = name;
+			this.data = data;
 		}
 	}
 
-	private Api api;
-	private Session session = new Session();
-	private WebSocket websocket;
-	private HashMap<String, String> usernameCache = new HashMap<>();
-	@SuppressWarnings("rawtypes")
-	private HashMap<String, Callbacks> eventListeners = new HashMap<>();
-	private CountDownLatch exitEvent = new CountDownLatch(1);
+	private final Set<PendingReply<?>> pendingReplies = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The future of {@link #sendAndAwait} that is also its event callback, so
+	 * waiting for a reply only allocates this, a listener and a timer.
+	 */
+	private final class PendingReply<T> extends CompletableFuture<T> implements EventCallback<T> {
+		private final Predicate<? super T> predicate;
+		private volatile Subscription subscription;
+		private volatile ScheduledFuture<?> timeout;
+
+		PendingReply(Predicate<? super T> predicate) {
+			this.predicate = predicate;
+		}
+
+		@Override
+		public void cb(T data) {
+			if (isDone())
+				return;
+			try {
+				if (predicate != null && !predicate.test(data))
+					return;
+			} catch (RuntimeException e) {
+				fail(e);
+				return;
+			}
+			cleanUp();
+			complete(data);
+		}
+
+		void fail(Throwable error) {
+			cleanUp();
+			completeExceptionally(error);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			cleanUp();
+			return super.cancel(mayInterruptIfRunning);
+		}
+
+		void cleanUp() {
+			var subscription = this.subscription;
+			if (subscription != null)
+				subscription.cancel();
+			var timeout = this.timeout;
+			if (timeout != null)
+				timeout.cancel(false);
+			pendingReplies.remove(this);
+		}
+	}
 
 	/**
 	 * Creates a new game socket.
 	 *
-	 * @param url The URL of the game server. The protocol should be omitted.
+	 * @param url The URL of the game server. When the protocol is omitted, it is
+	 *            detected automatically.
 	 * @throws IOException Thrown when the URL does not point to a valid CodeGame
 	 *                     game server.
 	 */
 	public GameSocket(String url) throws IOException {
-		AnsiConsole.systemInstall();
-		api = new Api(url);
-		var info = api.fetchInfo();
-		if (!isVersionCompatible(info.cgVersion)) {
-			System.out.println(Ansi.ansi().fg(Color.YELLOW)
-					.a("WARNING: CodeGame version mismatch. Server: v" + info.cgVersion + ", client: v" + cgVersion)
-					.reset());
+		this(new Api(url));
+	}
+
+	/**
+	 * Creates a new game socket which sends all requests with the HTTP client.
+	 *
+	 * @param url        The URL of the game server. When the protocol is omitted,
+	 *                   it is detected automatically.
+	 * @param httpClient The HTTP client. It can be shared by any number of
+	 *                   sockets.
+	 * @throws IOException Thrown when the URL does not point to a valid CodeGame
+	 *                     game server.
+	 */
+	public GameSocket(String url, HttpClient httpClient) throws IOException {
+		this(new Api(url, httpClient));
+	}
+
+	/**
+	 * Creates a new game socket which uses an existing Api instance. Any number of
+	 * sockets can share one Api instance.
+	 *
+	 * @param api The Api instance of the game server.
+	 * @throws IOException Thrown when the URL does not point to a valid CodeGame
+	 *                     game server.
+	 */
+	public GameSocket(Api api) throws IOException {
+		this(api, api.info());
+	}
+
+	/**
+	 * @param info The info of the game server or null to skip the version check.
+	 */
+	GameSocket(Api api, Api.GameInfo info) {
+		this.api = api;
+		if (info != null)
+			checkVersion(info);
+	}
+
+	private static class Console {
+		static {
+			AnsiConsole.systemInstall();
+		}
+
+		static void warn(String message) {
+			System.out.println(Ansi.ansi().fg(Color.YELLOW).a("WARNING: " + message).reset());
 		}
 	}
 
+	/**
+	 * Prints a warning when the server uses an incompatible CodeGame version.
+	 */
+	static void checkVersion(Api.GameInfo info) {
+		if (!isVersionCompatible(info.cgVersion))
+			Console.warn("CodeGame version mismatch. Server: v" + info.cgVersion + ", client: v" + cgVersion);
+	}
+
 	/**
 	 * Creates a new game on the server.
 	 *
@@ -74,6 +229,18 @@ public class GameSocket {
 		return api.createGame(makePublic, protect, config);
 	}
 
+	/**
+	 * Creates a new game on the server without blocking.
+	 *
+	 * @param makePublic Whether to make the created game public.
+	 * @param protect    Whether to protect the game with a join secret.
+	 * @param config     The game config.
+	 * @return A future that completes with information about the created game.
+	 */
+	public CompletableFuture<Api.GameData> createGameAsync(boolean makePublic, boolean protect, Object config) {
+		return api.createGameAsync(makePublic, protect, config);
+	}
+
 	/**
 	 * Creates a new player in the game and connects to it.
 	 *
@@ -94,14 +261,27 @@ public class GameSocket {
 	 * @throws IOException Thrown when the request fails.
 	 */
 	public void join(String gameId, String username, String joinSecret) throws IOException {
+		Api.await(joinAsync(gameId, username, joinSecret));
+	}
+
+	/**
+	 * Creates a new player in the protected game and connects to it without
+	 * blocking.
+	 *
+	 * @param gameId     The ID of the game.
+	 * @param username   The desired username.
+	 * @param joinSecret The join secret of the game.
+	 * @return A future that completes when the socket is connected.
+	 */
+	public CompletableFuture<Void> joinAsync(String gameId, String username, String joinSecret) {
 		if (session.gameURL != "")
 			throw new IllegalStateException("This socket is already connected to a  game.");
-		var player = api.createPlayer(gameId, username, joinSecret);
-		connect(gameId, player.id, player.secret);
+		return api.createPlayerAsync(gameId, username, joinSecret)
+				.thenCompose((player) -> connectAsync(gameId, player.id, player.secret));
 	}
 
 	/**
-	 * Loads the session from disk and reconnects to the game.
+	 * Loads the session from the session store and reconnects to the game.
 	 *
 	 * @param username The username of the session.
 	 * @throws IOException Thrown when the session doesn't exist or the request
@@ -110,11 +290,12 @@ public class GameSocket {
 	public void restoreSession(String username) throws IOException {
 		if (session.gameURL != "")
 			throw new IllegalStateException("This socket is already connected to a  game.");
-		var session = Session.load(api.getURL(), username);
+		var store = sessionStore != null ? sessionStore : FileSessionStore.getDefault();
+		var session = store.load(api.getURL(), username);
 		try {
 			connect(session.gameId, session.playerId, session.playerSecret);
 		} catch (Exception e) {
-			session.remove();
+			store.remove(api.getURL(), username);
 			throw e;
 		}
 	}
@@ -128,22 +309,47 @@ public class GameSocket {
 	 * @throws IOException Thrown when the connection fails.
 	 */
 	public void connect(String gameId, String playerId, String playerSecret) throws IOException {
-		if (session.gameURL != "")
-			throw new IllegalStateException("This socket is already connected to a  game.");
+		Api.await(connectAsync(gameId, playerId, playerSecret));
+	}
 
-		websocket = api.connectWebSocket(
-				"/api/games/" + gameId + "/players/" + playerId + "/connect?player_secret=" + playerSecret,
-				(String message) -> onMessage(message), () -> onClose());
+	/**
+	 * Connects to a player on the server without blocking. The websocket
+	 * handshake and fetching the players of the game happen concurrently.
+	 *
+	 * @param gameId       The ID of the game.
+	 * @param playerId     The ID of the player.
+	 * @param playerSecret The secret of the player.
+	 * @return A future that completes when the socket is connected.
+	 */
+	public CompletableFuture<Void> connectAsync(String gameId, String playerId, String playerSecret) {
+		return connectAsync(gameId, playerId, playerSecret, api.fetchPlayersAsync(gameId));
+	}
 
-		session = new Session(api.getURL(), "", gameId, playerId, playerSecret);
+	/**
+	 * @param players The players of the game, which may be shared by several
+	 *                sockets connecting to the same game.
+	 */
+	CompletableFuture<Void> connectAsync(String gameId, String playerId, String playerSecret,
+			CompletableFuture<? extends Map<String, String>> players) {
+		if (session.gameURL != "")
+			throw new IllegalStateException("This socket is already connected to a  game.");
 
-		usernameCache = api.fetchPlayers(gameId);
-		session.username = usernameCache.get(playerId);
-		try {
-			session.save();
-		} catch (Exception e) {
-			System.err.println("ERROR: Failed to save session: " + e.getMessage());
-		}
+		var websocket = api.connectWebSocketAsync(endpoint(gameId, playerId, playerSecret), newListener(),
+				subprotocols());
+		return websocket.thenCombine(players, (ws, usernames) -> {
+			attach(ws, new Session(api.getURL(), "", gameId, playerId, playerSecret));
+			usernameCache.clear();
+			usernameCache.putAll(usernames);
+			session.username = usernames.get(playerId);
+			if (sessionStore != null) {
+				try {
+					sessionStore.save(session);
+				} catch (Exception e) {
+					System.err.println("ERROR: Failed to save session: " + e.getMessage());
+				}
+			}
+			return (Void) null;
+		}).whenComplete((result, e) -> abortOnFailure(websocket, e));
 	}
 
 	/**
@@ -153,20 +359,48 @@ public class GameSocket {
 	 * @throws IOException Thrown when the connection fails.
 	 */
 	public void spectate(String gameId) throws IOException {
+		Api.await(spectateAsync(gameId));
+	}
+
+	/**
+	 * Connects to a game as a spectator without blocking. The websocket handshake
+	 * and fetching the players of the game happen concurrently.
+	 *
+	 * @param gameId The ID of the game.
+	 * @return A future that completes when the socket is connected.
+	 */
+	public CompletableFuture<Void> spectateAsync(String gameId) {
 		if (session.gameURL != "")
 			throw new IllegalStateException("This socket is already connected to a  game.");
 
-		websocket = api.connectWebSocket(
-				"/api/games/" + gameId + "/spectate",
-				(String message) -> onMessage(message), () -> onClose());
+		var players = api.fetchPlayersAsync(gameId);
+		var websocket = api.connectWebSocketAsync(endpoint(gameId, "", ""), newListener(), subprotocols());
+		return websocket.thenCombine(players, (ws, usernames) -> {
+			attach(ws, new Session(api.getURL(), "", gameId, "", ""));
+			usernameCache.clear();
+			usernameCache.putAll(usernames);
+			return (Void) null;
+		}).whenComplete((result, e) -> abortOnFailure(websocket, e));
+	}
 
-		session = new Session(api.getURL(), "", gameId, "", "");
+	private static String endpoint(String gameId, String playerId, String playerSecret) {
+		if (playerId.isEmpty())
+			return "/api/games/" + gameId + "/spectate";
+		return "/api/games/" + gameId + "/players/" + playerId + "/connect?player_secret=" + playerSecret;
+	}
 
-		usernameCache = api.fetchPlayers(gameId);
+	/**
+	 * Closes a websocket whose connection succeeded while the rest of the
+	 * connection process failed.
+	 */
+	private static void abortOnFailure(CompletableFuture<WebSocket> websocket, Throwable e) {
+		if (e != null)
+			websocket.thenAccept(WebSocket::abort);
 	}
 
 	/**
-	 * Blocks until the connection is closed.
+	 * Blocks until the connection is closed. When a reconnect policy is set, this
+	 * only returns once reconnecting has failed.
 	 */
 	public void listen() {
 		try {
@@ -180,10 +414,56 @@ public class GameSocket {
 	 * Close the underlying websocket connection.
 	 */
 	public void close() {
-		websocket.sendClose(WebSocket.NORMAL_CLOSURE, "Normal closure.");
+		closing = true;
+		boolean wasReconnecting;
+		ScheduledFuture<?> task;
+		synchronized (connectionLock) {
+			wasReconnecting = reconnecting;
+			task = reconnectTask;
+		}
+		if (websocket == null)
+			// Never connected, so there is nothing to close.
+			finish();
+		else if (!wasReconnecting)
+			websocket.sendClose(WebSocket.NORMAL_CLOSURE, "Normal closure.");
+		else if (task == null || task.cancel(false))
+			finish();
+		// Otherwise the running attempt notices that the socket is closing.
 		listen();
 	}
 
+	/**
+	 * Enables automatic reconnects after the connection has been lost. The
+	 * socket reconnects with its current session and keeps all event listeners.
+	 * Commands sent while reconnecting are buffered and sent after the
+	 * connection has been restored. Connections closed normally by either side
+	 * are not restored.
+	 *
+	 * @param reconnectPolicy The policy or null to disable reconnects, which is
+	 *                        the default.
+	 */
+	public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+		this.reconnectPolicy = reconnectPolicy;
+	}
+
+	/**
+	 * Registers a listener for changes of the connection state.
+	 *
+	 * @param listener The listener.
+	 */
+	public void addConnectionListener(ConnectionListener listener) {
+		connectionListeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener for changes of the connection state.
+	 *
+	 * @param listener The listener.
+	 */
+	public void removeConnectionListener(ConnectionListener listener) {
+		connectionListeners.remove(listener);
+	}
+
 	public static class Event<T> {
 		@SerializedName("name")
 		String name;
@@ -208,18 +488,8 @@ public class GameSocket {
 	 * @param callback  The callback function.
 	 * @return An ID that can be used to remove the callback.
 	 */
-	@SuppressWarnings("unchecked")
 	public <T> String on(String eventName, Class<T> type, EventCallback<T> callback) {
-		if (!eventListeners.containsKey(eventName))
-			eventListeners.put(eventName, new Callbacks<>(type));
-
-		var id = UUID.randomUUID().toString();
-		var callbacks = (Callbacks<T>) eventListeners.get(eventName);
-		if (!callbacks.type.getTypeName().equals(type.getTypeName()))
-			throw new IllegalArgumentException("Wrong event listener type.");
-		callbacks.type = type;
-		callbacks.callbacks.put(id, callback);
-		return id;
+		return Long.toString(subscribe(eventName, type, callback).getId());
 	}
 
 	/**
@@ -231,36 +501,395 @@ public class GameSocket {
 	 * @param callback  The callback function.
 	 * @return An ID that can be used to remove the callback.
 	 */
-	@SuppressWarnings("unchecked")
 	public <T> String once(String eventName, Class<T> type, EventCallback<T> callback) {
-		if (!eventListeners.containsKey(eventName))
-			eventListeners.put(eventName, new Callbacks<>(type));
-
-		var id = UUID.randomUUID().toString();
-		var callbacks = (Callbacks<T>) eventListeners.get(eventName);
-		if (!callbacks.type.getTypeName().equals(type.getTypeName()))
-			throw new IllegalArgumentException("Wrong event listener type.");
-		callbacks.type = type;
-		callbacks.callbacks.put(id, (data) -> {
-			callback.cb(data);
-			removeCallback(eventName, id);
-		});
-		return id;
+		return Long.toString(subscribeOnce(eventName, type, callback).getId());
+	}
+
+	/**
+	 * Registers a callback that is triggered every time the event is received.
+	 *
+	 * @param <T>       The type of the event data.
+	 * @param eventName The name of the event.
+	 * @param type      The type of the event data.
+	 * @param callback  The callback function.
+	 * @return A subscription that can be used to remove the callback.
+	 */
+	public <T> Subscription subscribe(String eventName, Class<T> type, EventCallback<T> callback) {
+		return subscribe(eventName, TypeToken.get(type), callback);
+	}
+
+	/**
+	 * Registers a callback that is triggered the next time the event is received.
+	 *
+	 * @param <T>       The type of the event data.
+	 * @param eventName The name of the event.
+	 * @param type      The type of the event data.
+	 * @param callback  The callback function.
+	 * @return A subscription that can be used to remove the callback before it
+	 *         has been triggered.
+	 */
+	public <T> Subscription subscribeOnce(String eventName, Class<T> type, EventCallback<T> callback) {
+		return subscribeOnce(eventName, TypeToken.get(type), callback);
+	}
+
+	/**
+	 * Registers a callback that is triggered every time the event is received.
+	 *
+	 * @param <T>       The type of the event data.
+	 * @param eventName The name of the event.
+	 * @param type      The type of the event data, which may be generic, e.g.
+	 *                  {@code new TypeToken<List<Unit>>() {}}.
+	 * @param callback  The callback function.
+	 * @return An ID that can be used to remove the callback.
+	 */
+	public <T> String on(String eventName, TypeToken<T> type, EventCallback<T> callback) {
+		return Long.toString(subscribe(eventName, type, callback).getId());
+	}
+
+	/**
+	 * Registers a callback that is triggered the next time the event is received.
+	 *
+	 * @param <T>       The type of the event data.
+	 * @param eventName The name of the event.
+	 * @param type      The type of the event data, which may be generic, e.g.
+	 *                  {@code new TypeToken<List<Unit>>() {}}.
+	 * @param callback  The callback function.
+	 * @return An ID that can be used to remove the callback.
+	 */
+	public <T> String once(String eventName, TypeToken<T> type, EventCallback<T> callback) {
+		return Long.toString(subscribeOnce(eventName, type, callback).getId());
+	}
+
+	/**
+	 * Registers a callback that is triggered every time the event is received.
+	 *
+	 * @param <T>       The type of the event data.
+	 * @param eventName The name of the event.
+	 * @param type      The type of the event data, which may be generic, e.g.
+	 *                  {@code new TypeToken<List<Unit>>() {}}.
+	 * @param callback  The callback function.
+	 * @return A subscription that can be used to remove the callback.
+	 */
+	public <T> Subscription subscribe(String eventName, TypeToken<T> type, EventCallback<T> callback) {
+		return eventListeners.add(eventName, type, callback, false);
+	}
+
+	/**
+	 * Registers a callback that is triggered the next time the event is received.
+	 *
+	 * @param <T>       The type of the event data.
+	 * @param eventName The name of the event.
+	 * @param type      The type of the event data, which may be generic, e.g.
+	 *                  {@code new TypeToken<List<Unit>>() {}}.
+	 * @param callback  The callback function.
+	 * @return A subscription that can be used to remove the callback before it
+	 *         has been triggered.
+	 */
+	public <T> Subscription subscribeOnce(String eventName, TypeToken<T> type, EventCallback<T> callback) {
+		return eventListeners.add(eventName, type, callback, true);
+	}
+
+	/**
+	 * Registers a callback that receives the event without decoding its data. The
+	 * data is only decoded when the callback asks for it, see
+	 * {@link RawEvent#as(Class)}. Raw callbacks run after the regular callbacks of
+	 * the event.
+	 *
+	 * @param eventName The name of the event.
+	 * @param callback  The callback function.
+	 * @return A subscription that can be used to remove the callback.
+	 */
+	public Subscription subscribeRaw(String eventName, EventCallback<RawEvent> callback) {
+		return rawListeners.add(eventName, rawEventType, callback, false);
+	}
+
+	/**
+	 * Sends the command and waits for the event that answers it. The callback is
+	 * registered before the command is sent, so a fast reply cannot be missed.
+	 * It is removed as soon as the future completes.
+	 *
+	 * The future completes on the thread that runs event callbacks, see
+	 * {@link #setDispatcher(Dispatcher)}, so dependent actions should not block.
+	 * With the inline dispatcher, a timeout completes it on the default executor
+	 * of CompletableFuture instead.
+	 *
+	 * @param <C>         The type of the command data.
+	 * @param <T>         The type of the event data.
+	 * @param commandName The name of the command.
+	 * @param data        The command data.
+	 * @param eventName   The name of the event that answers the command.
+	 * @param type        The type of the event data.
+	 * @param predicate   Selects the event that answers this command, e.g. by an
+	 *                    ID, or null to accept the next event with the name.
+	 * @param timeout     How long to wait for the event.
+	 * @return A future that completes with the data of the event. It completes
+	 *         exceptionally with a TimeoutException when no event arrived in
+	 *         time, with an IllegalStateException when the socket is closed
+	 *         before and with the error of the predicate or of sending the
+	 *         command otherwise.
+	 */
+	public <C, T> CompletableFuture<T> sendAndAwait(String commandName, C data, String eventName, Class<T> type,
+			Predicate<? super T> predicate, Duration timeout) {
+		return sendAndAwait(commandName, data, eventName, TypeToken.get(type), predicate, timeout);
+	}
+
+	/**
+	 * Sends the command and waits for the event that answers it, see
+	 * {@link #sendAndAwait(String, Object, String, Class, Predicate, Duration)}.
+	 *
+	 * @param type The type of the event data, which may be generic, e.g.
+	 *             {@code new TypeToken<List<Unit>>() {}}.
+	 */
+	public <C, T> CompletableFuture<T> sendAndAwait(String commandName, C data, String eventName, TypeToken<T> type,
+			Predicate<? super T> predicate, Duration timeout) {
+		var reply = new PendingReply<T>(predicate);
+		if (exitEvent.getCount() == 0) {
+			reply.completeExceptionally(new IllegalStateException("The socket is closed."));
+			return reply;
+		}
+		pendingReplies.add(reply);
+		try {
+			// The socket may have been closed before the reply was added, in which case
+			// finish() did not see it.
+			if (exitEvent.getCount() == 0)
+				throw new IllegalStateException("The socket is closed.");
+			reply.subscription = eventListeners.add(eventName, type, reply, false);
+			var dispatcher = this.dispatcher;
+			// The scheduler only hands the timeout over, so that dependent actions
+			// cannot delay the timers of other sockets.
+			reply.timeout = Scheduler.instance.schedule(() -> reply.defaultExecutor().execute(() -> {
+				var error = new TimeoutException("No " + eventName + " event within " + timeout.toMillis() + " ms.");
+				try {
+					dispatcher.dispatch(eventName, () -> reply.fail(error));
+				} catch (RuntimeException e) {
+					// The dispatcher has been closed.
+					reply.fail(error);
+				}
+			}), timeout.toNanos(), TimeUnit.NANOSECONDS);
+		} catch (RuntimeException e) {
+			// Removes the reply and whatever was registered for it.
+			reply.fail(e);
+			return reply;
+		}
+		// An event or finish() may have completed the reply before the handles were
+		// assigned.
+		if (reply.isDone())
+			reply.cleanUp();
+
+		try {
+			sendAsync(commandName, data).whenComplete((result, e) -> {
+				if (e != null)
+					reply.fail(e);
+			});
+		} catch (RuntimeException e) {
+			reply.fail(e);
+		}
+		return reply;
 	}
 
 	/**
-	 * Sends the command to the server.
+	 * Sends the command to the server and blocks until it has been written.
 	 *
 	 * @param <T>         The type of the command data.
 	 * @param commandName The name of the command.
 	 * @param data        The command data.
 	 */
 	public <T> void send(String commandName, T data) {
+		sendAsync(commandName, data).join();
+	}
+
+	/**
+	 * Queues the command to be sent to the server without waiting for it to be
+	 * written. Commands are written in the order in which they were queued.
+	 *
+	 * @param <T>         The type of the command data.
+	 * @param commandName The name of the command.
+	 * @param data        The command data.
+	 * @return A future that completes when the command has been written or
+	 *         completes exceptionally when writing fails or the command was
+	 *         rejected by the backpressure policy.
+	 */
+	public <T> CompletableFuture<Void> sendAsync(String commandName, T data) {
 		if (websocket == null || session.getPlayerId().isEmpty())
 			throw new IllegalStateException("The socket is not connected to a player.");
-		Event<T> e = new Event<>(commandName, data);
-		var json = Api.json.toJson(e, TypeToken.getParameterized(Event.class, data.getClass()).getType());
-		websocket.sendText(json, true).join();
+		synchronized (connectionLock) {
+			if (reconnecting)
+				return buffer(commandName, data);
+		}
+		return offer(commandName, data);
+	}
+
+	private CompletableFuture<Void> buffer(String commandName, Object data) {
+		var reconnectPolicy = this.reconnectPolicy;
+		if (reconnectPolicy == null)
+			// Reconnects were disabled while reconnecting, so the attempt in progress is
+			// the last one.
+			return CompletableFuture.failedFuture(new IllegalStateException("The socket is reconnecting."));
+		if (pendingCommands.size() >= reconnectPolicy.getMaxBufferedCommands())
+			return CompletableFuture.failedFuture(
+					new IllegalStateException("Too many commands were sent while reconnecting."));
+		var command = new PendingCommand(commandName, data);
+		pendingCommands.add(command);
+		return command.future;
+	}
+
+	private CompletableFuture<Void> offer(String commandName, Object data) {
+		Object frame;
+		try {
+			if (negotiatedCodec.isBinary())
+				frame = negotiatedCodec.encodeBinary(commandName, data);
+			else
+				frame = negotiatedCodec.encodeText(commandName, data);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		var recorder = this.recorder;
+		if (recorder != null) {
+			if (frame instanceof String)
+				recorder.recordText(true, commandName, (String) frame);
+			else
+				recorder.recordBinary(true, commandName, (ByteBuffer) frame);
+		}
+		if (metrics != Metrics.noop())
+			metrics.commandSent(commandName,
+					frame instanceof String ? ((String) frame).length() : ((ByteBuffer) frame).remaining());
+		return commandQueue.offer(frame);
+	}
+
+	/**
+	 * Configures the queue of commands which have not been written yet. Takes
+	 * effect with the next connection.
+	 *
+	 * @param capacity     The maximum number of queued commands.
+	 * @param backpressure What to do when a command is sent while the queue is
+	 *                     full.
+	 */
+	public void setOutboundQueue(int capacity, Backpressure backpressure) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity must be at least 1.");
+		this.outboundQueueCapacity = capacity;
+		this.backpressure = backpressure;
+	}
+
+	/**
+	 * Sets how the callbacks of received events are run. Defaults to
+	 * {@link Dispatcher#inline()}.
+	 *
+	 * @param dispatcher The dispatcher. It is not closed by the socket.
+	 */
+	public void setDispatcher(Dispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Sets how many received events may wait for or run their callbacks before
+	 * the socket stops reading further events. Only relevant for dispatchers that
+	 * do not run callbacks inline. Takes effect with the next connection.
+	 *
+	 * @param maxInFlight The maximum number of events in flight.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("The in-flight limit must be at least 1.");
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Sets the maximum size of a received message. The connection is closed when
+	 * a larger message is received. Takes effect with the next connection.
+	 *
+	 * @param maxMessageSize The maximum number of characters of a message.
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		if (maxMessageSize < 1)
+			throw new IllegalArgumentException("The maximum message size must be at least 1.");
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	/**
+	 * Configures the websocket pings which measure the latency and detect dead
+	 * connections. A connection that misses too many pongs in a row is treated
+	 * as closed with 1006, so it is reconnected when a {@link ReconnectPolicy} is
+	 * set. Takes effect with the next connection. Defaults to a ping every 15
+	 * seconds and 3 missed pongs.
+	 *
+	 * @param interval       The time between two pings or null to disable pings.
+	 * @param maxMissedPongs The number of consecutive unanswered pings after
+	 *                       which the connection is considered dead.
+	 */
+	public void setHeartbeat(Duration interval, int maxMissedPongs) {
+		if (interval != null && (interval.isZero() || interval.isNegative()))
+			throw new IllegalArgumentException("The heartbeat interval must be positive.");
+		if (maxMissedPongs < 1)
+			throw new IllegalArgumentException("The number of missed pongs must be at least 1.");
+		this.heartbeatInterval = interval;
+		this.maxMissedPongs = maxMissedPongs;
+	}
+
+	/**
+	 * @return The round-trip times measured with pings since the socket was
+	 *         created.
+	 */
+	public Latency getLatency() {
+		return new Latency(latency);
+	}
+
+	/**
+	 * Sets where measurements of the socket and its {@link Api} are reported.
+	 * Defaults to {@link Metrics#noop()}, which skips taking any measurements.
+	 *
+	 * @param metrics The metrics.
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+		api.setMetrics(metrics);
+	}
+
+	/**
+	 * Sets where the session is saved after connecting and from where
+	 * {@link #restoreSession(String)} loads it. Defaults to
+	 * {@link FileSessionStore#getDefault()}.
+	 *
+	 * @param sessionStore The session store or null to not save sessions, e.g.
+	 *                     for short-lived load test players.
+	 */
+	public void setSessionStore(SessionStore sessionStore) {
+		this.sessionStore = sessionStore;
+	}
+
+	/**
+	 * Records all frames that are received and sent from now on. The recorder is
+	 * not closed by the socket.
+	 *
+	 * @param recorder The recorder or null to stop recording.
+	 */
+	public void setRecorder(Recorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Sets the codec that is offered to the server as a websocket subprotocol.
+	 * When the server accepts it, events and commands are exchanged in its
+	 * format, otherwise the socket falls back to JSON. Takes effect with the next
+	 * connection.
+	 *
+	 * @param codec The codec, for example {@link EventCodec#cbor()}.
+	 */
+	public void setCodec(EventCodec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * @return The codec that is used on the current connection.
+	 */
+	public EventCodec getCodec() {
+		return negotiatedCodec;
+	}
+
+	private String[] subprotocols() {
+		if (codec.getSubprotocol() == null)
+			return new String[0];
+		return new String[] { codec.getSubprotocol() };
 	}
 
 	/**
@@ -270,9 +899,10 @@ public class GameSocket {
 	 * @param id        The ID of the callback.
 	 */
 	public void removeCallback(String eventName, String id) {
-		if (!eventListeners.containsKey(eventName))
-			return;
-		eventListeners.get(eventName).callbacks.remove(id);
+		try {
+			eventListeners.remove(eventName, Long.parseLong(id));
+		} catch (NumberFormatException e) {
+		}
 	}
 
 	/**
@@ -284,11 +914,73 @@ public class GameSocket {
 	 * @throws IOException Thrown when the request fails.
 	 */
 	public String username(String playerID) throws IOException {
-		if (usernameCache.containsKey(playerID))
-			return usernameCache.get(playerID);
-		var username = api.fetchUsername(session.gameId, playerID);
-		usernameCache.put(playerID, username);
-		return username;
+		return Api.await(usernameAsync(playerID));
+	}
+
+	/**
+	 * Retrieves the username of the player from the player cache or fetches it from
+	 * the server without blocking if it is not already there. Concurrent lookups
+	 * of the same player share one request.
+	 *
+	 * @param playerID The ID of the player.
+	 * @return A future that completes with the username of the player.
+	 */
+	public CompletableFuture<String> usernameAsync(String playerID) {
+		return usernameCache.get(playerID);
+	}
+
+	/**
+	 * Replaces the cached usernames with all players of the game.
+	 *
+	 * @return A future that completes when the cache has been refreshed.
+	 */
+	public CompletableFuture<Void> refreshUsernames() {
+		return api.fetchPlayersAsync(session.gameId).thenAccept((players) -> {
+			usernameCache.clear();
+			usernameCache.putAll(players);
+		});
+	}
+
+	/**
+	 * Sets the maximum number of cached usernames. When the cache is full, the
+	 * least recently used username is evicted. Defaults to 10,000.
+	 *
+	 * @param maxSize The maximum number of cached usernames.
+	 */
+	public void setUsernameCacheSize(int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("The cache size must be at least 1.");
+		usernameCache.setMaxSize(maxSize);
+	}
+
+	/**
+	 * Adds the usernames of players to the cache whenever the event is received,
+	 * for example when a player joins.
+	 *
+	 * @param <T>       The type of the event data.
+	 * @param eventName The name of the event.
+	 * @param type      The type of the event data.
+	 * @param playerId  Extracts the ID of the player from the event data.
+	 * @param username  Extracts the username of the player from the event data.
+	 * @return A subscription that stops updating the cache.
+	 */
+	public <T> Subscription cacheUsernamesOn(String eventName, Class<T> type, Function<T, String> playerId,
+			Function<T, String> username) {
+		return subscribe(eventName, type, (data) -> usernameCache.put(playerId.apply(data), username.apply(data)));
+	}
+
+	/**
+	 * Removes players from the username cache whenever the event is received, for
+	 * example when a player leaves.
+	 *
+	 * @param <T>       The type of the event data.
+	 * @param eventName The name of the event.
+	 * @param type      The type of the event data.
+	 * @param playerId  Extracts the ID of the player from the event data.
+	 * @return A subscription that stops updating the cache.
+	 */
+	public <T> Subscription evictUsernamesOn(String eventName, Class<T> type, Function<T, String> playerId) {
+		return subscribe(eventName, type, (data) -> usernameCache.remove(playerId.apply(data)));
 	}
 
 	/**
@@ -306,24 +998,255 @@ public class GameSocket {
 		return session;
 	}
 
-	private class EventMessage {
-		@SerializedName("name")
-		String name;
+	/**
+	 * Uses an already established websocket connection for the given session.
+	 */
+	void attach(WebSocket websocket, Session session) {
+		this.websocket = websocket;
+		negotiate(websocket);
+		this.commandQueue = new CommandQueue(websocket, outboundQueueCapacity, backpressure);
+		this.session = session;
+		for (var listener : connectionListeners)
+			listener.connected();
+	}
+
+	/**
+	 * Selects the codec of the subprotocol that the server accepted. Called by
+	 * the listener before the first frame is requested, so frames that arrive
+	 * before the connection is attached are decoded with the right codec.
+	 */
+	private void negotiate(WebSocket websocket) {
+		var subprotocol = websocket.getSubprotocol();
+		if (codec.getSubprotocol() != null && codec.getSubprotocol().equals(subprotocol))
+			this.negotiatedCodec = codec;
+		else
+			this.negotiatedCodec = EventCodec.json();
+	}
+
+	/**
+	 * Prepares the socket to receive recorded frames through
+	 * {@link #onMessage(CharSequence)} and {@link #onBinaryMessage(ByteBuffer)}
+	 * instead of a connection.
+	 */
+	void startReplay() {
+		negotiatedCodec = codec;
+		newListener();
+	}
+
+	/**
+	 * Blocks until the callbacks of all dispatched events have returned.
+	 */
+	void awaitDispatched() throws InterruptedException {
+		client.awaitIdle();
+	}
+
+	WSClient newListener() {
+		client = new WSClient((WebSocket websocket) -> negotiate(websocket),
+				(CharSequence message) -> onMessage(message), (ByteBuffer message) -> onBinaryMessage(message),
+				(int statusCode) -> onClose(statusCode), maxInFlight, maxMessageSize);
+		client.setHeartbeat(heartbeatInterval, maxMissedPongs, latency);
+		return client;
+	}
+
+	/**
+	 * Decodes and dispatches a complete text message. The message may be a reused
+	 * buffer, so it must not be referenced after this method returns.
+	 */
+	void onMessage(CharSequence message) {
+		// Text frames are JSON unless the negotiated codec is a text codec.
+		var textCodec = negotiatedCodec.isBinary() ? EventCodec.json() : negotiatedCodec;
+		var metrics = this.metrics;
+		var recorder = this.recorder;
+		long start = metrics == Metrics.noop() ? 0 : System.nanoTime();
+		decodedName = null;
+		Event<?> event;
+		try {
+			event = textCodec.decodeText(message, listenerAdapters);
+		} catch (IOException | RuntimeException e) {
+			// Runtime exceptions of a codec must not escape, they would kill the listener.
+			if (recorder != null)
+				recorder.recordText(false, decodedName, message);
+			System.err.println("ERROR: Failed to decode event: " + e);
+			return;
+		}
+		if (decodedName != null && metrics != Metrics.noop())
+			metrics.eventReceived(decodedName, message.length(), System.nanoTime() - start);
+		if (recorder != null)
+			recorder.recordText(false, decodedName, message);
+		dispatch(event, eventListeners);
+		if (decodedName == null || rawListeners.get(decodedName) == null)
+			return;
+		RawEvent raw;
+		try {
+			raw = textCodec.scanText(message);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("ERROR: Failed to scan event: " + e);
+			return;
+		}
+		dispatchRaw(raw);
+	}
+
+	/**
+	 * Decodes and dispatches a complete binary message. The message may be a
+	 * reused buffer, so it must not be referenced after this method returns.
+	 */
+	void onBinaryMessage(ByteBuffer message) {
+		var recorder = this.recorder;
+		var raw = recorder != null ? message.duplicate() : null;
+		if (!negotiatedCodec.isBinary()) {
+			if (recorder != null)
+				recorder.recordBinary(false, null, raw);
+			System.err.println("ERROR: Received a binary message without a binary codec.");
+			return;
+		}
+		var metrics = this.metrics;
+		long start = metrics == Metrics.noop() ? 0 : System.nanoTime();
+		int size = message.remaining();
+		decodedName = null;
+		Event<?> event;
+		try {
+			event = negotiatedCodec.decodeBinary(message, listenerAdapters);
+		} catch (IOException | RuntimeException e) {
+			if (recorder != null)
+				recorder.recordBinary(false, decodedName, raw);
+			System.err.println("ERROR: Failed to decode event: " + e);
+			return;
+		}
+		if (decodedName != null && metrics != Metrics.noop())
+			metrics.eventReceived(decodedName, size, System.nanoTime() - start);
+		if (recorder != null)
+			recorder.recordBinary(false, decodedName, raw);
+		dispatch(event, eventListeners);
+		if (decodedName == null || rawListeners.get(decodedName) == null)
+			return;
+		RawEvent rawEvent;
+		try {
+			rawEvent = negotiatedCodec.scanBinary(message);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("ERROR: Failed to scan event: " + e);
+			return;
+		}
+		dispatchRaw(rawEvent);
+	}
+
+	private void dispatchRaw(RawEvent event) {
+		dispatch(new Event<>(event.getName(), event), rawListeners);
 	}
 
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private void onMessage(String message) {
-		var emptyEvent = Api.json.fromJson(message, EventMessage.class);
-		if (!eventListeners.containsKey(emptyEvent.name))
+	private void dispatch(Event<?> event, ListenerRegistry listeners) {
+		if (event == null)
+			return;
+		var callbacks = (ListenerRegistry.Callbacks) listeners.get(event.name);
+		if (callbacks == null)
+			return;
+		var metrics = this.metrics;
+
+		var client = this.client;
+		metrics.dispatchQueueDepth(client.acquire(), 1);
+		dispatcher.dispatch(event.name, () -> {
+			long start = metrics == Metrics.noop() ? 0 : System.nanoTime();
+			try {
+				callbacks.dispatch(event.data);
+			} finally {
+				if (metrics != Metrics.noop())
+					metrics.callbacksCompleted(event.name, System.nanoTime() - start);
+				metrics.dispatchQueueDepth(client.release(), -1);
+			}
+		});
+	}
+
+	private void onClose(int statusCode) {
+		if (commandQueue != null)
+			commandQueue.close();
+		var reconnectPolicy = this.reconnectPolicy;
+		if (reconnectPolicy == null || closing || statusCode == WebSocket.NORMAL_CLOSURE || session.gameId.isEmpty()) {
+			finish();
 			return;
-		var callbacks = eventListeners.get(emptyEvent.name);
-		Event event = Api.json.fromJson(message, TypeToken.getParameterized(Event.class, callbacks.type).getType());
-		for (EventCallback cb : ((HashMap<String, EventCallback>) callbacks.callbacks).values()) {
-			cb.cb(event.data);
 		}
+		synchronized (connectionLock) {
+			reconnecting = true;
+		}
+		scheduleReconnect(1);
 	}
 
-	private void onClose() {
+	private void scheduleReconnect(int attempt) {
+		var reconnectPolicy = this.reconnectPolicy;
+		if (closing || reconnectPolicy == null || attempt > reconnectPolicy.getMaxAttempts()) {
+			finish();
+			return;
+		}
+		var delay = reconnectPolicy.delay(attempt);
+		for (var listener : connectionListeners)
+			listener.reconnecting(attempt, delay);
+		metrics.reconnectAttempt(attempt);
+		synchronized (connectionLock) {
+			reconnectTask = Scheduler.instance.schedule(() -> reconnect(attempt), delay.toMillis(),
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void reconnect(int attempt) {
+		var session = this.session;
+		api.connectWebSocketAsync(endpoint(session.gameId, session.playerId, session.playerSecret), newListener(),
+				subprotocols()).whenComplete((ws, e) -> {
+					if (e != null) {
+						scheduleReconnect(attempt + 1);
+						return;
+					}
+					if (closing) {
+						ws.sendClose(WebSocket.NORMAL_CLOSURE, "Normal closure.");
+						return;
+					}
+					attach(ws, session);
+					replayPendingCommands();
+					metrics.reconnected();
+				});
+	}
+
+	/**
+	 * Sends the commands that were buffered while reconnecting. New commands are
+	 * buffered until the buffer is empty, so they stay behind the older ones. The
+	 * lock is not held while sending because the queue may block.
+	 */
+	private void replayPendingCommands() {
+		while (true) {
+			ArrayDeque<PendingCommand> commands;
+			synchronized (connectionLock) {
+				if (pendingCommands.isEmpty()) {
+					reconnecting = false;
+					return;
+				}
+				commands = pendingCommands;
+				pendingCommands = new ArrayDeque<>();
+			}
+			for (var command : commands) {
+				offer(command.name, command.data).whenComplete((result, e) -> {
+					if (e != null)
+						command.future.completeExceptionally(e);
+					else
+						command.future.complete(null);
+				});
+			}
+		}
+	}
+
+	/**
+	 * Closes the socket for good.
+	 */
+	void finish() {
+		ArrayDeque<PendingCommand> pending;
+		synchronized (connectionLock) {
+			reconnecting = false;
+			pending = pendingCommands;
+			pendingCommands = new ArrayDeque<>();
+		}
+		for (var command : pending)
+			command.future.completeExceptionally(new IllegalStateException("The socket is closed."));
+		for (var reply : pendingReplies)
+			reply.fail(new IllegalStateException("The socket is closed."));
+		for (var listener : connectionListeners)
+			listener.disconnected();
 		exitEvent.countDown();
 	}
 
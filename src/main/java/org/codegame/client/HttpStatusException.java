@@ -0,0 +1,22 @@
+package org.codegame.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the game server answers a request with an unexpected status
+ * code.
+ */
+class HttpStatusException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private final int statusCode;
+
+	HttpStatusException(String message, int statusCode) {
+		super(message);
+		this.statusCode = statusCode;
+	}
+
+	int getStatusCode() {
+		return statusCode;
+	}
+}
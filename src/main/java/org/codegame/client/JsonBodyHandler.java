@@ -0,0 +1,56 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * Decodes JSON response bodies with Gson while they are being received instead
+ * of buffering them first.
+ *
+ * The body is mapped to a supplier because decoding blocks on the body stream
+ * and must not run on the threads of the HTTP client. Calling the supplier
+ * decodes the body and throws an UncheckedIOException when the response code
+ * is not 200 or 201 or the body is malformed.
+ */
+class JsonBodyHandler<T> implements HttpResponse.BodyHandler<Supplier<T>> {
+	private final String endpoint;
+	private final Type type;
+
+	JsonBodyHandler(String endpoint, Type type) {
+		this.endpoint = endpoint;
+		this.type = type;
+	}
+
+	@Override
+	public HttpResponse.BodySubscriber<Supplier<T>> apply(HttpResponse.ResponseInfo responseInfo) {
+		int responseCode = responseInfo.statusCode();
+		if (responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_CREATED) {
+			return HttpResponse.BodySubscribers.replacing(() -> {
+				throw new UncheckedIOException(new HttpStatusException("Failed to read response from " + endpoint
+						+ " endpoint: unexpected response code: " + responseCode, responseCode));
+			});
+		}
+		return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofInputStream(),
+				(InputStream body) -> () -> decode(body));
+	}
+
+	private T decode(InputStream body) {
+		try (var reader = new InputStreamReader(body, StandardCharsets.UTF_8)) {
+			return Api.json().fromJson(reader, type);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (JsonParseException e) {
+			throw new UncheckedIOException(new IOException("Failed to decode response from " + endpoint
+					+ " endpoint: " + e.getMessage(), e));
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+
+import org.apache.commons.io.input.CharSequenceReader;
+
+/**
+ * The default codec, which sends events as JSON text frames.
+ */
+final class JsonCodec implements EventCodec {
+	static final JsonCodec instance = new JsonCodec();
+
+	private JsonCodec() {
+	}
+
+	@Override
+	public String getSubprotocol() {
+		return null;
+	}
+
+	@Override
+	public boolean isBinary() {
+		return false;
+	}
+
+	/**
+	 * Reads an event in a single pass. The name is read first so that the data can
+	 * be bound directly with the adapter of the listeners. Events without
+	 * listeners are abandoned as soon as their name is known.
+	 */
+	@Override
+	public GameSocket.Event<?> decodeText(CharSequence message, AdapterLookup listeners) throws IOException {
+		try (var reader = new JsonReader(new CharSequenceReader(message))) {
+			String name = null;
+			TypeAdapter<?> adapter = null;
+			JsonElement pendingData = null;
+			Object data = null;
+
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "name":
+						name = reader.nextString();
+						adapter = listeners.adapterFor(name);
+						if (adapter == null)
+							return null;
+						if (pendingData != null)
+							data = adapter.fromJsonTree(pendingData);
+						break;
+					case "data":
+						if (adapter != null)
+							data = adapter.read(reader);
+						else
+							// The server sent the data before the name, so it cannot be bound yet.
+							pendingData = JsonParser.parseReader(reader);
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			if (adapter == null)
+				return null;
+			return new GameSocket.Event<>(name, data);
+		} catch (IllegalStateException | JsonParseException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Finds the name and the span of the data with a minimal scan that only
+	 * tracks nesting and strings.
+	 */
+	@Override
+	public RawEvent scanText(CharSequence message) throws IOException {
+		try {
+			String name = null;
+			String data = null;
+			int i = skipWhitespace(message, 0);
+			expect(message, i, '{');
+			i = skipWhitespace(message, i + 1);
+			if (message.charAt(i) != '}') {
+				while (true) {
+					expect(message, i, '"');
+					int keyEnd = skipString(message, i);
+					var key = message.subSequence(i + 1, keyEnd - 1);
+					i = skipWhitespace(message, keyEnd);
+					expect(message, i, ':');
+					int valueStart = skipWhitespace(message, i + 1);
+					int valueEnd = skipValue(message, valueStart);
+					if ("name".contentEquals(key))
+						name = JsonParser.parseString(message.subSequence(valueStart, valueEnd).toString()).getAsString();
+					else if ("data".contentEquals(key))
+						data = message.subSequence(valueStart, valueEnd).toString();
+					i = skipWhitespace(message, valueEnd);
+					if (message.charAt(i) == '}')
+						break;
+					expect(message, i, ',');
+					i = skipWhitespace(message, i + 1);
+				}
+			}
+			if (name == null)
+				throw new IOException("The event has no name.");
+			return new RawEvent(this, name, data, null);
+		} catch (IndexOutOfBoundsException | IllegalStateException | JsonParseException e) {
+			throw new IOException("Invalid JSON event: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public <T> T decodeTextData(CharSequence data, TypeAdapter<T> adapter) throws IOException {
+		try (var reader = new JsonReader(new CharSequenceReader(data))) {
+			return adapter.read(reader);
+		} catch (IllegalStateException | JsonParseException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	private static int skipWhitespace(CharSequence text, int i) {
+		while (i < text.length() && Character.isWhitespace(text.charAt(i)))
+			i++;
+		return i;
+	}
+
+	private static void expect(CharSequence text, int i, char expected) throws IOException {
+		if (text.charAt(i) != expected)
+			throw new IOException("Invalid JSON event: expected '" + expected + "' at " + i + ".");
+	}
+
+	/**
+	 * @return The index after the closing quote of the string that starts at i.
+	 */
+	private static int skipString(CharSequence text, int i) {
+		i++;
+		while (true) {
+			char c = text.charAt(i++);
+			if (c == '"')
+				return i;
+			if (c == '\\')
+				i++;
+		}
+	}
+
+	/**
+	 * @return The index after the value that starts at i.
+	 */
+	private static int skipValue(CharSequence text, int i) {
+		char c = text.charAt(i);
+		if (c == '"')
+			return skipString(text, i);
+		if (c != '{' && c != '[') {
+			while (i < text.length() && ",}] \t\r\n".indexOf(text.charAt(i)) < 0)
+				i++;
+			return i;
+		}
+		int depth = 0;
+		while (true) {
+			c = text.charAt(i);
+			if (c == '"') {
+				i = skipString(text, i);
+				continue;
+			}
+			if (c == '{' || c == '[')
+				depth++;
+			else if ((c == '}' || c == ']') && --depth == 0)
+				return i + 1;
+			i++;
+		}
+	}
+
+	@Override
+	public String encodeText(String name, Object data) throws IOException {
+		var out = new StringWriter();
+		var writer = Api.json().newJsonWriter(out);
+		writer.beginObject();
+		writer.name("name").value(name);
+		writer.name("data");
+		if (data == null)
+			writer.nullValue();
+		else
+			Adapters.forClass(data.getClass()).write(writer, data);
+		writer.endObject();
+		writer.flush();
+		return out.toString();
+	}
+}
@@ -0,0 +1,72 @@
+package org.codegame.client;
+
+import java.time.Duration;
+
+/**
+ * A snapshot of the round-trip times to the game server, measured with
+ * websocket pings.
+ */
+public class Latency {
+	private final Duration current;
+	private final Duration median;
+	private final Duration p99;
+	private final Duration max;
+	private final long samples;
+
+	Latency(LatencyHistogram histogram) {
+		this.current = micros(histogram.last());
+		this.median = micros(histogram.percentile(50));
+		this.p99 = micros(histogram.percentile(99));
+		this.max = micros(histogram.count() == 0 ? -1 : histogram.max());
+		this.samples = histogram.count();
+	}
+
+	private static Duration micros(long micros) {
+		return micros < 0 ? null : Duration.ofNanos(micros * 1000);
+	}
+
+	/**
+	 * @return The most recent round-trip time or null when no pong has been
+	 *         received yet.
+	 */
+	public Duration getCurrent() {
+		return current;
+	}
+
+	/**
+	 * @return The median round-trip time or null when no pong has been received
+	 *         yet.
+	 */
+	public Duration getMedian() {
+		return median;
+	}
+
+	/**
+	 * @return The 99th percentile of the round-trip time or null when no pong has
+	 *         been received yet.
+	 */
+	public Duration getP99() {
+		return p99;
+	}
+
+	/**
+	 * @return The highest round-trip time or null when no pong has been received
+	 *         yet.
+	 */
+	public Duration getMax() {
+		return max;
+	}
+
+	/**
+	 * @return The number of measured round trips.
+	 */
+	public long getSamples() {
+		return samples;
+	}
+
+	@Override
+	public String toString() {
+		return "Latency[current=" + current + ", median=" + median + ", p99=" + p99 + ", max=" + max + ", samples="
+				+ samples + "]";
+	}
+}
@@ -0,0 +1,89 @@
+package org.codegame.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in microseconds.
+ *
+ * Every power of two is split into 8 linear sub-buckets, so recorded values are
+ * accurate to within 12.5 %. Values from 1 µs up to about 1 hour are tracked,
+ * larger values are counted in the last bucket.
+ */
+class LatencyHistogram {
+	private static final int subBuckets = 8;
+	private static final int subBucketBits = 3;
+	private static final int powers = 32;
+
+	private final AtomicLongArray counts = new AtomicLongArray(powers * subBuckets);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	private volatile long last = -1;
+
+	void record(long micros) {
+		if (micros < 0)
+			micros = 0;
+		counts.incrementAndGet(index(micros));
+		count.incrementAndGet();
+		last = micros;
+		long current;
+		while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+		}
+	}
+
+	/**
+	 * @return The most recently recorded value or -1 when nothing was recorded.
+	 */
+	long last() {
+		return last;
+	}
+
+	long max() {
+		return max.get();
+	}
+
+	long count() {
+		return count.get();
+	}
+
+	/**
+	 * @param percentile The percentile between 0 and 100.
+	 * @return The upper bound of the bucket that contains the percentile or -1
+	 *         when nothing was recorded.
+	 */
+	long percentile(double percentile) {
+		long total = 0;
+		var snapshot = new long[counts.length()];
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return -1;
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	private static int index(long micros) {
+		if (micros < subBuckets)
+			return (int) micros;
+		int power = 63 - Long.numberOfLeadingZeros(micros);
+		int subBucket = (int) (micros >>> (power - subBucketBits)) & (subBuckets - 1);
+		int index = (power - subBucketBits + 1) * subBuckets + subBucket;
+		return Math.min(index, powers * subBuckets - 1);
+	}
+
+	private static long upperBound(int index) {
+		if (index < subBuckets)
+			return index;
+		int power = index / subBuckets + subBucketBits - 1;
+		int subBucket = index % subBuckets;
+		return ((long) (subBuckets + subBucket + 1) << (power - subBucketBits)) - 1;
+	}
+}
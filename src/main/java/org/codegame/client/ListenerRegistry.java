@@ -0,0 +1,161 @@
+package org.codegame.client;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Thread-safe registry of event listeners.
+ *
+ * The listeners of every event are kept in an array which is replaced on every
+ * change. Dispatching iterates a snapshot of that array without locking, so
+ * listeners can be added and removed from any thread, including from inside a
+ * callback that is currently being dispatched.
+ */
+class ListenerRegistry {
+	static final class Listener<T> {
+		final long id;
+		final GameSocket.EventCallback<T> callback;
+		final boolean once;
+		private final AtomicBoolean fired;
+
+		Listener(long id, GameSocket.EventCallback<T> callback, boolean once) {
+			this.id = id;
+			this.callback = callback;
+			this.once = once;
+			this.fired = once ? new AtomicBoolean() : null;
+		}
+	}
+
+	/**
+	 * The listeners of one event. The adapter of the event type is resolved once
+	 * when the first listener is added, and every message is decoded once for all
+	 * listeners.
+	 */
+	static final class Callbacks<T> {
+		final TypeToken<T> type;
+		final TypeAdapter<T> adapter;
+		private final AtomicReference<Listener<T>[]> listeners;
+
+		Callbacks(TypeToken<T> type, boolean bindData) {
+			this.type = type;
+			this.adapter = bindData ? Api.json().getAdapter(type) : null;
+			this.listeners = new AtomicReference<>(emptyListeners());
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <T> Listener<T>[] emptyListeners() {
+			return (Listener<T>[]) new Listener<?>[0];
+		}
+
+		/**
+		 * @return A snapshot of the current listeners. Must not be modified.
+		 */
+		Listener<T>[] listeners() {
+			return listeners.get();
+		}
+
+		/**
+		 * Calls all listeners with the event data. Listeners registered with once are
+		 * removed before their callback runs and are called at most once, even when
+		 * the event is dispatched concurrently.
+		 */
+		void dispatch(T data) {
+			for (var listener : listeners.get()) {
+				if (listener.once) {
+					if (!listener.fired.compareAndSet(false, true))
+						continue;
+					remove(listener.id);
+				}
+				listener.callback.cb(data);
+			}
+		}
+
+		void add(Listener<T> listener) {
+			Listener<T>[] current, next;
+			do {
+				current = listeners.get();
+				next = Arrays.copyOf(current, current.length + 1);
+				next[current.length] = listener;
+			} while (!listeners.compareAndSet(current, next));
+		}
+
+		boolean remove(long id) {
+			Listener<T>[] current, next;
+			do {
+				current = listeners.get();
+				int index = -1;
+				for (int i = 0; i < current.length; i++) {
+					if (current[i].id == id) {
+						index = i;
+						break;
+					}
+				}
+				if (index < 0)
+					return false;
+				next = Arrays.copyOf(current, current.length - 1);
+				System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+			} while (!listeners.compareAndSet(current, next));
+			return true;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Callbacks<?>> events = new ConcurrentHashMap<>();
+	private final AtomicLong nextId = new AtomicLong();
+	private final boolean bindData;
+
+	ListenerRegistry() {
+		this(true);
+	}
+
+	/**
+	 * @param bindData Whether to resolve the type adapter of each event, which is
+	 *                 not needed when listeners receive the data as it is.
+	 */
+	ListenerRegistry(boolean bindData) {
+		this.bindData = bindData;
+	}
+
+	/**
+	 * Adds a listener for the event.
+	 *
+	 * @throws IllegalArgumentException Thrown when the event already has listeners
+	 *                                  of a different type.
+	 */
+	@SuppressWarnings("unchecked")
+	<T> Subscription add(String eventName, TypeToken<T> type, GameSocket.EventCallback<T> callback, boolean once) {
+		var callbacks = (Callbacks<T>) events.computeIfAbsent(eventName, (name) -> new Callbacks<>(type, bindData));
+		if (!callbacks.type.equals(type))
+			throw new IllegalArgumentException("Wrong event listener type.");
+		var id = nextId.incrementAndGet();
+		callbacks.add(new Listener<>(id, callback, once));
+		return new Subscription(this, eventName, id);
+	}
+
+	/**
+	 * Removes the listener with the ID from the event.
+	 *
+	 * @return Whether the listener was registered.
+	 */
+	boolean remove(String eventName, long id) {
+		var callbacks = events.get(eventName);
+		if (callbacks == null)
+			return false;
+		return callbacks.remove(id);
+	}
+
+	/**
+	 * @return The callbacks of the event or null when it has no listeners.
+	 */
+	Callbacks<?> get(String eventName) {
+		var callbacks = events.get(eventName);
+		if (callbacks == null || callbacks.listeners().length == 0)
+			return null;
+		return callbacks;
+	}
+}
@@ -0,0 +1,98 @@
+package org.codegame.client;
+
+/**
+ * Receives measurements from a {@link GameSocket} and an {@link Api}. All
+ * methods do nothing by default. They are called on the websocket, dispatcher
+ * and HTTP client threads, so implementations must be thread-safe and should
+ * not block.
+ *
+ * Event and command names are passed as the strings that were received or
+ * sent, so implementations that look up meters by name should do so without
+ * allocating, e.g. with a {@link java.util.concurrent.ConcurrentHashMap}.
+ */
+public interface Metrics {
+	/**
+	 * Called for every received event, including events without callbacks, whose
+	 * data is not decoded.
+	 *
+	 * @param eventName The name of the event.
+	 * @param size      The number of characters of a text message or bytes of a
+	 *                  binary message.
+	 * @param nanos     The time it took to decode the message.
+	 */
+	default void eventReceived(String eventName, int size, long nanos) {
+	}
+
+	/**
+	 * Called after the callbacks of an event have run.
+	 *
+	 * @param eventName The name of the event.
+	 * @param nanos     The time the callbacks took.
+	 */
+	default void callbacksCompleted(String eventName, long nanos) {
+	}
+
+	/**
+	 * Called for every received event that has no callbacks.
+	 *
+	 * @param eventName The name of the event.
+	 */
+	default void eventDropped(String eventName) {
+	}
+
+	/**
+	 * Called whenever an event is handed to the dispatcher and whenever its
+	 * callbacks have completed.
+	 *
+	 * @param inFlight The number of events of the socket whose callbacks have not
+	 *                 completed yet.
+	 * @param change   1 when an event was handed to the dispatcher, -1 when its
+	 *                 callbacks have completed. Metrics shared by several sockets
+	 *                 can sum these up to the events in flight of all sockets.
+	 */
+	default void dispatchQueueDepth(int inFlight, int change) {
+	}
+
+	/**
+	 * Called for every command that was encoded and queued.
+	 *
+	 * @param commandName The name of the command.
+	 * @param size        The number of characters of a text message or bytes of
+	 *                    a binary message.
+	 */
+	default void commandSent(String commandName, int size) {
+	}
+
+	/**
+	 * Called when a request to the game server has completed.
+	 *
+	 * @param route      The endpoint with placeholders instead of IDs, e.g.
+	 *                   {@code /api/games/{game_id}/players}.
+	 * @param statusCode The HTTP status code or -1 when no response was
+	 *                   received.
+	 * @param nanos      The time until the response was decoded.
+	 */
+	default void httpRequest(String route, int statusCode, long nanos) {
+	}
+
+	/**
+	 * Called when a reconnect attempt is scheduled.
+	 *
+	 * @param attempt The number of the attempt, starting at 1.
+	 */
+	default void reconnectAttempt(int attempt) {
+	}
+
+	/**
+	 * Called when a reconnect attempt has succeeded.
+	 */
+	default void reconnected() {
+	}
+
+	/**
+	 * @return Metrics that discard all measurements. This is the default.
+	 */
+	static Metrics noop() {
+		return NoopMetrics.instance;
+	}
+}
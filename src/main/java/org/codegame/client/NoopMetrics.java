@@ -0,0 +1,12 @@
+package org.codegame.client;
+
+/**
+ * Holds the metrics that are used when none are set. Sockets skip taking
+ * timestamps when they see this instance.
+ */
+final class NoopMetrics implements Metrics {
+	static final Metrics instance = new NoopMetrics();
+
+	private NoopMetrics() {
+	}
+}
@@ -0,0 +1,108 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * An event whose data has not been decoded. Listeners that only forward or log
+ * events, or only need the data of some events, can skip decoding the rest.
+ *
+ * The data of text frames is the raw JSON, the data of binary frames the raw
+ * CBOR. Typed access decodes the data with the codec that received the event
+ * on the first call and returns the same instance on later calls with the same
+ * type.
+ */
+public class RawEvent {
+	private final EventCodec codec;
+	private final String name;
+	private final String text;
+	private final ByteBuffer binary;
+	private TypeToken<?> decodedType;
+	private Object decoded;
+
+	RawEvent(EventCodec codec, String name, String text, ByteBuffer binary) {
+		this.codec = codec;
+		this.name = name;
+		this.text = text;
+		this.binary = binary;
+	}
+
+	/**
+	 * @return The name of the event.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Whether the event was received as a binary frame.
+	 */
+	public boolean isBinary() {
+		return binary != null;
+	}
+
+	/**
+	 * @return The raw JSON of the data or null when the event was received as a
+	 *         binary frame or has no data.
+	 */
+	public CharSequence getData() {
+		return text;
+	}
+
+	/**
+	 * @return A read-only view of the raw CBOR of the data or null when the event
+	 *         was received as a text frame or has no data.
+	 */
+	public ByteBuffer getBinaryData() {
+		return binary == null ? null : binary.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Decodes the data.
+	 *
+	 * @param <T>  The type of the data.
+	 * @param type The class of the data.
+	 * @return The data or null when the event has no data.
+	 * @throws JsonParseException Thrown when the data does not match the type.
+	 */
+	public <T> T as(Class<T> type) {
+		return as(TypeToken.get(type));
+	}
+
+	/**
+	 * Decodes the data.
+	 *
+	 * @param <T>  The type of the data.
+	 * @param type The type of the data, which may be generic.
+	 * @return The data or null when the event has no data.
+	 * @throws JsonParseException Thrown when the data does not match the type.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> T as(TypeToken<T> type) {
+		if (type.equals(decodedType))
+			return (T) decoded;
+		var adapter = Api.json().getAdapter(type);
+		T data;
+		try {
+			if (binary != null)
+				data = codec.decodeBinaryData(binary.duplicate(), adapter);
+			else if (text != null)
+				data = codec.decodeTextData(text, adapter);
+			else
+				data = null;
+		} catch (IOException e) {
+			throw new JsonParseException("Failed to decode the data of " + name + ": " + e.getMessage(), e);
+		}
+		decodedType = type;
+		decoded = data;
+		return data;
+	}
+
+	@Override
+	public String toString() {
+		return "RawEvent[name=" + name + ", data=" + (binary != null ? binary.remaining() + " bytes" : text) + "]";
+	}
+}
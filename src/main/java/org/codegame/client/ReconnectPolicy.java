@@ -0,0 +1,115 @@
+package org.codegame.client;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Determines how a {@link GameSocket} reconnects after losing its connection.
+ *
+ * The delay before an attempt grows exponentially from the initial delay up to
+ * the maximum delay and is randomized by the jitter, so that many clients do
+ * not reconnect at the same moment.
+ */
+public class ReconnectPolicy {
+	private Duration initialDelay = Duration.ofMillis(250);
+	private Duration maxDelay = Duration.ofSeconds(30);
+	private double multiplier = 2;
+	private double jitter = 0.2;
+	private int maxAttempts = 10;
+	private int maxBufferedCommands = 256;
+
+	/**
+	 * Creates a new policy with the default settings: delays from 250 ms up to 30
+	 * s, doubling with every attempt, 20 % jitter, 10 attempts and up to 256
+	 * buffered commands.
+	 */
+	public ReconnectPolicy() {
+	}
+
+	/**
+	 * @param initialDelay The delay before the first attempt.
+	 * @return This policy.
+	 */
+	public ReconnectPolicy setInitialDelay(Duration initialDelay) {
+		this.initialDelay = initialDelay;
+		return this;
+	}
+
+	/**
+	 * @param maxDelay The maximum delay before an attempt.
+	 * @return This policy.
+	 */
+	public ReconnectPolicy setMaxDelay(Duration maxDelay) {
+		this.maxDelay = maxDelay;
+		return this;
+	}
+
+	/**
+	 * @param multiplier The factor by which the delay grows with every attempt.
+	 * @return This policy.
+	 */
+	public ReconnectPolicy setMultiplier(double multiplier) {
+		if (multiplier < 1)
+			throw new IllegalArgumentException("The multiplier must be at least 1.");
+		this.multiplier = multiplier;
+		return this;
+	}
+
+	/**
+	 * @param jitter The fraction by which a delay is randomly shortened or
+	 *               lengthened, between 0 and 1.
+	 * @return This policy.
+	 */
+	public ReconnectPolicy setJitter(double jitter) {
+		if (jitter < 0 || jitter > 1)
+			throw new IllegalArgumentException("The jitter must be between 0 and 1.");
+		this.jitter = jitter;
+		return this;
+	}
+
+	/**
+	 * @param maxAttempts The number of attempts before the socket gives up.
+	 * @return This policy.
+	 */
+	public ReconnectPolicy setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+
+	/**
+	 * @param maxBufferedCommands The number of commands that are buffered while
+	 *                            the socket is reconnecting. Further commands
+	 *                            fail.
+	 * @return This policy.
+	 */
+	public ReconnectPolicy setMaxBufferedCommands(int maxBufferedCommands) {
+		this.maxBufferedCommands = maxBufferedCommands;
+		return this;
+	}
+
+	/**
+	 * @return The number of attempts before the socket gives up.
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @return The number of commands that are buffered while the socket is
+	 *         reconnecting.
+	 */
+	public int getMaxBufferedCommands() {
+		return maxBufferedCommands;
+	}
+
+	/**
+	 * @param attempt The number of the attempt, starting at 1.
+	 * @return The delay before the attempt.
+	 */
+	Duration delay(int attempt) {
+		double millis = initialDelay.toMillis() * Math.pow(multiplier, attempt - 1);
+		millis = Math.min(millis, maxDelay.toMillis());
+		millis *= 1 + jitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+		return Duration.ofMillis(Math.max(0, Math.round(millis)));
+	}
+}
@@ -0,0 +1,94 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.TypeAdapter;
+
+/**
+ * A frame of a recording read with a {@link RecordingReader}. The payload is a
+ * view of the mapped file and is only decoded when asked for.
+ */
+public class RecordedFrame {
+	private final long timestamp;
+	private final byte flags;
+	private final String name;
+	private final ByteBuffer payload;
+	private final EventCodec codec;
+
+	RecordedFrame(long timestamp, byte flags, String name, ByteBuffer payload, EventCodec codec) {
+		this.timestamp = timestamp;
+		this.flags = flags;
+		this.name = name;
+		this.payload = payload;
+		this.codec = codec;
+	}
+
+	/**
+	 * @return The time since the start of the recording in nanoseconds.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return Whether the frame is a command that was sent, as opposed to an event
+	 *         that was received.
+	 */
+	public boolean isOutbound() {
+		return (flags & Recorder.outbound) != 0;
+	}
+
+	/**
+	 * @return Whether the frame is a binary message.
+	 */
+	public boolean isBinary() {
+		return (flags & Recorder.binary) != 0;
+	}
+
+	/**
+	 * @return The name of the event or command or an empty string when it was
+	 *         unknown.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return A read-only view of the raw message.
+	 */
+	public ByteBuffer getPayload() {
+		return payload.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return The message of a text frame.
+	 */
+	public String getText() {
+		return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+	}
+
+	/**
+	 * Decodes the data of the event or command with the codec of the reader.
+	 * Text frames are always decoded as JSON unless the codec is a text codec.
+	 *
+	 * @param <T>  The type of the data.
+	 * @param type The class of the data.
+	 * @return The data.
+	 * @throws IOException Thrown when the message is malformed.
+	 */
+	public <T> T decode(Class<T> type) throws IOException {
+		TypeAdapter<T> adapter = Api.json().getAdapter(type);
+		GameSocket.Event<?> event;
+		if (isBinary()) {
+			event = codec.decodeBinary(payload.duplicate(), (eventName) -> adapter);
+		} else {
+			var textCodec = codec.isBinary() ? EventCodec.json() : codec;
+			event = textCodec.decodeText(StandardCharsets.UTF_8.decode(payload.duplicate()), (eventName) -> adapter);
+		}
+		if (event == null)
+			throw new IOException("The frame does not contain an event.");
+		return type.cast(event.data);
+	}
+}
@@ -0,0 +1,270 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the frames a {@link GameSocket} receives and sends to an append-only
+ * file, which can be replayed with a {@link ReplaySocket}.
+ *
+ * Frames are copied on the websocket thread and written by a background thread
+ * through a buffer, so recording never waits for the disk. When the disk cannot
+ * keep up and the queue of copied frames is full, new frames are dropped and
+ * counted, see {@link #getDroppedFrames()}. A file starts with
+ * the magic bytes {@code CGRC}, a version (short) and the wall clock time of
+ * the start of the recording in milliseconds (long). Every frame consists of
+ * <ul>
+ * <li>the time since the start of the recording in nanoseconds (long),</li>
+ * <li>flags (byte): {@link #outbound} and {@link #binary},</li>
+ * <li>the length of the event or command name (short) and the name in
+ * UTF-8,</li>
+ * <li>the length of the payload (int) and the payload, which is the UTF-8
+ * encoded text or the bytes of the message.</li>
+ * </ul>
+ * All numbers are big-endian. Frames are stamped when they are recorded and
+ * written in the order of their timestamps.
+ */
+public class Recorder implements AutoCloseable {
+	static final int magic = 0x43475243;
+	static final short version = 1;
+	static final int fileHeaderSize = 4 + 2 + 8;
+	static final int frameHeaderSize = 8 + 1 + 2 + 4;
+	static final byte outbound = 1;
+	static final byte binary = 2;
+
+	private static final int bufferSize = 64 * 1024;
+	private static final int defaultCapacity = 16 * 1024;
+	private static final Frame end = new Frame(0, (byte) 0, new byte[0], null, ByteBuffer.allocate(0));
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+	// Only used by the writer thread. Lone surrogates are written as '?', like
+	// String.getBytes does.
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final ArrayBlockingQueue<Frame> frames;
+	private final Object queueLock = new Object();
+	private final AtomicLong droppedFrames = new AtomicLong();
+	private final long start = System.nanoTime();
+	private final Thread writer;
+	private volatile IOException error;
+	private volatile boolean closed;
+
+	private static class Frame {
+		final long timestamp;
+		final byte flags;
+		final byte[] name;
+		// Text frames are encoded by the writer thread, binary frames are copied.
+		final String text;
+		final ByteBuffer payload;
+
+		Frame(long timestamp, byte flags, byte[] name, String text, ByteBuffer payload) {
+			this.timestamp = timestamp;
+			this.flags = flags;
+			this.name = name;
+			this.text = text;
+			this.payload = payload;
+		}
+	}
+
+	/**
+	 * Creates a new recording that queues up to 16384 frames. An existing file is
+	 * overwritten.
+	 *
+	 * @param file The file of the recording.
+	 * @throws IOException Thrown when the file cannot be created.
+	 */
+	public Recorder(Path file) throws IOException {
+		this(file, defaultCapacity);
+	}
+
+	/**
+	 * Creates a new recording. An existing file is overwritten.
+	 *
+	 * @param file     The file of the recording.
+	 * @param capacity The maximum number of frames that wait to be written.
+	 * @throws IOException Thrown when the file cannot be created.
+	 */
+	public Recorder(Path file, int capacity) throws IOException {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity must be at least 1.");
+		frames = new ArrayBlockingQueue<>(capacity);
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		buffer.putInt(magic).putShort(version).putLong(System.currentTimeMillis());
+		writer = new Thread(this::write, "codegame-recorder");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Records a text frame with the current time. The message is copied, so it
+	 * may be a reused buffer.
+	 */
+	void recordText(boolean outbound, String name, CharSequence message) {
+		if (closed)
+			return;
+		queue(outbound ? Recorder.outbound : 0, encodeName(name), message.toString(), null);
+	}
+
+	/**
+	 * Records a binary frame with the current time. The remaining bytes of the
+	 * message are copied without changing its position.
+	 */
+	void recordBinary(boolean outbound, String name, ByteBuffer message) {
+		if (closed)
+			return;
+		var payload = ByteBuffer.allocate(message.remaining()).put(message.duplicate()).flip();
+		queue((byte) ((outbound ? Recorder.outbound : 0) | binary), encodeName(name), null, payload);
+	}
+
+	private void queue(byte flags, byte[] name, String text, ByteBuffer payload) {
+		// Frames of several threads are stamped and queued together, so the
+		// recording is ordered by time.
+		synchronized (queueLock) {
+			if (!frames.offer(new Frame(System.nanoTime() - start, flags, name, text, payload)))
+				droppedFrames.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The number of frames that were not recorded because the queue was
+	 *         full.
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+	private static byte[] encodeName(String name) {
+		return name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void write() {
+		try {
+			while (true) {
+				var frame = frames.poll();
+				if (frame == null) {
+					// Flush whenever the queue runs dry so that the file stays close to current.
+					flush();
+					frame = frames.take();
+				}
+				if (frame == end)
+					break;
+				write(frame);
+			}
+			flush();
+		} catch (IOException e) {
+			error = e;
+			closed = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void write(Frame frame) throws IOException {
+		if (buffer.remaining() < frameHeaderSize + frame.name.length)
+			flush();
+		buffer.putLong(frame.timestamp).put(frame.flags).putShort((short) frame.name.length).put(frame.name)
+				.putInt(frame.text != null ? utf8Length(frame.text) : frame.payload.remaining());
+		if (frame.text != null) {
+			writeText(frame.text);
+			return;
+		}
+		while (frame.payload.hasRemaining()) {
+			if (!buffer.hasRemaining())
+				flush();
+			int length = Math.min(buffer.remaining(), frame.payload.remaining());
+			buffer.put(frame.payload.slice(frame.payload.position(), length));
+			frame.payload.position(frame.payload.position() + length);
+		}
+	}
+
+	/**
+	 * Encodes the text straight into the buffer.
+	 */
+	private void writeText(String text) throws IOException {
+		var chars = CharBuffer.wrap(text);
+		encoder.reset();
+		while (encoder.encode(chars, buffer, true).isOverflow())
+			flush();
+		while (encoder.flush(buffer).isOverflow())
+			flush();
+	}
+
+	/**
+	 * @return The number of bytes of the UTF-8 encoded text, with lone
+	 *         surrogates as one byte.
+	 */
+	private static int utf8Length(String text) {
+		int length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Writes all recorded frames and closes the file.
+	 *
+	 * @throws UncheckedIOException Thrown when writing the recording failed.
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			try {
+				// The writer makes room unless it has failed and is gone.
+				while (writer.isAlive()) {
+					if (frames.offer(end, 100, TimeUnit.MILLISECONDS))
+						break;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			if (error == null)
+				error = e;
+		}
+		if (error != null)
+			throw new UncheckedIOException("Failed to write the recording: " + error.getMessage(), error);
+	}
+}
@@ -0,0 +1,326 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads recordings made with a {@link Recorder} without loading them into the
+ * heap.
+ *
+ * The file is memory-mapped. Opening it scans the frame headers once to build
+ * a sparse index: the offset and timestamp of every block of
+ * {@value #blockSize} frames and, for every name, the blocks that contain it.
+ * Seeking to a point in time or streaming the frames of one name then only
+ * touches the blocks involved, and payloads are only decoded when asked for.
+ * A frame that was cut off at the end of the file, e.g. because the recording
+ * is still running, is ignored.
+ */
+public class RecordingReader implements AutoCloseable {
+	static final int blockSize = 1024;
+	private static final long segmentSize = 1L << 30;
+	// Mappings overlap so that almost no frame crosses the end of a mapping.
+	private static final long segmentOverlap = 64L * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final long size;
+	private final MappedByteBuffer[] segments;
+	private final long startTime;
+	private EventCodec codec = EventCodec.json();
+
+	private long frameCount;
+	private long end;
+	private long lastTimestamp;
+	private long[] blockOffsets = new long[16];
+	private long[] blockTimestamps = new long[16];
+	private final HashMap<String, BitSet> blocksByName = new HashMap<>();
+
+	/**
+	 * Opens a recording and builds its index.
+	 *
+	 * @param file The file of the recording.
+	 * @throws IOException Thrown when the file cannot be read or is not a
+	 *                     recording.
+	 */
+	public RecordingReader(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			size = channel.size();
+			segments = new MappedByteBuffer[(int) ((size + segmentSize - 1) / segmentSize)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = i * segmentSize;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(segmentSize + segmentOverlap, size - start));
+			}
+			if (size < Recorder.fileHeaderSize)
+				throw new IOException("Not a recording: " + file);
+			var header = region(0, Recorder.fileHeaderSize);
+			if (header.getInt() != Recorder.magic || header.getShort() != Recorder.version)
+				throw new IOException("Not a recording of a supported version: " + file);
+			startTime = header.getLong();
+			index();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void index() throws IOException {
+		long offset = Recorder.fileHeaderSize;
+		while (offset + Recorder.frameHeaderSize <= size) {
+			var header = region(offset, Recorder.frameHeaderSize - 4);
+			long timestamp = header.getLong();
+			header.get();
+			int nameLength = Short.toUnsignedInt(header.getShort());
+			long payloadOffset = offset + Recorder.frameHeaderSize + nameLength;
+			if (payloadOffset > size)
+				break;
+			int payloadLength = region(payloadOffset - 4, 4).getInt();
+			long next = payloadOffset + payloadLength;
+			if (payloadLength < 0 || next > size)
+				break;
+
+			int block = (int) (frameCount / blockSize);
+			if (frameCount % blockSize == 0) {
+				if (block == blockOffsets.length) {
+					blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+					blockTimestamps = Arrays.copyOf(blockTimestamps, block * 2);
+				}
+				blockOffsets[block] = offset;
+				blockTimestamps[block] = timestamp;
+			}
+			var name = StandardCharsets.UTF_8.decode(region(offset + Recorder.frameHeaderSize - 4, nameLength))
+					.toString();
+			blocksByName.computeIfAbsent(name, (key) -> new BitSet()).set(block);
+
+			frameCount++;
+			lastTimestamp = timestamp;
+			offset = next;
+		}
+		end = offset;
+	}
+
+	/**
+	 * @return A view of the file, which is a slice of a mapping when possible.
+	 */
+	private ByteBuffer region(long offset, int length) throws IOException {
+		var segment = segments[(int) (offset / segmentSize)];
+		long relative = offset % segmentSize;
+		if (relative + length <= segment.capacity())
+			return segment.slice((int) relative, length);
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	/**
+	 * Sets the codec which decodes binary frames and text frames of text codecs.
+	 * Defaults to {@link EventCodec#json()}.
+	 *
+	 * @param codec The codec the recording was made with.
+	 */
+	public void setCodec(EventCodec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * @return The wall clock time at which the recording started in milliseconds
+	 *         since the epoch.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return The time between the start of the recording and its last frame.
+	 */
+	public Duration getDuration() {
+		return Duration.ofNanos(lastTimestamp);
+	}
+
+	/**
+	 * @return The number of complete frames.
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return The names of all recorded events and commands.
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(blocksByName.keySet());
+	}
+
+	/**
+	 * @return All frames in the order in which they were recorded.
+	 */
+	public Stream<RecordedFrame> frames() {
+		return stream(new FrameIterator(0, Long.MIN_VALUE, null));
+	}
+
+	/**
+	 * Seeks to a point in time.
+	 *
+	 * @param from The time since the start of the recording.
+	 * @return The frames that were recorded at or after the time.
+	 */
+	public Stream<RecordedFrame> frames(Duration from) {
+		long timestamp = from.toNanos();
+		int blocks = blockCount();
+		int block = Arrays.binarySearch(blockTimestamps, 0, blocks, timestamp);
+		if (block < 0)
+			block = -block - 1;
+		while (block > 0 && blockTimestamps[block - 1] >= timestamp)
+			block--;
+		// The last block that starts before the time may still contain frames at or
+		// after it.
+		return stream(new FrameIterator(Math.max(0, block - 1), timestamp, null));
+	}
+
+	/**
+	 * Streams the frames of one event or command. Only blocks which contain the
+	 * name are read.
+	 *
+	 * @param name The name of the event or command.
+	 * @return The frames with the name in the order in which they were recorded.
+	 */
+	public Stream<RecordedFrame> frames(String name) {
+		var blocks = blocksByName.get(name);
+		if (blocks == null)
+			return Stream.empty();
+		return stream(new FrameIterator(blocks.nextSetBit(0), Long.MIN_VALUE, name));
+	}
+
+	/**
+	 * Streams the decoded data of all received events with the name.
+	 *
+	 * @param <T>       The type of the event data.
+	 * @param eventName The name of the event.
+	 * @param type      The class of the event data.
+	 * @return The event data in the order in which it was received.
+	 */
+	public <T> Stream<T> events(String eventName, Class<T> type) {
+		return frames(eventName).filter((frame) -> !frame.isOutbound()).map((frame) -> {
+			try {
+				return frame.decode(type);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	private int blockCount() {
+		return (int) ((frameCount + blockSize - 1) / blockSize);
+	}
+
+	private static Stream<RecordedFrame> stream(Iterator<RecordedFrame> iterator) {
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Walks the frames block by block, skipping frames before a timestamp and,
+	 * when a name is given, blocks and frames without the name.
+	 */
+	private class FrameIterator implements Iterator<RecordedFrame> {
+		private final long from;
+		private final String name;
+		private final ByteBuffer nameBytes;
+		private final BitSet blocks;
+		private int block;
+		private long offset;
+		private long blockEnd;
+		private RecordedFrame next;
+
+		FrameIterator(int block, long from, String name) {
+			this.from = from;
+			this.name = name;
+			this.nameBytes = name == null ? null : ByteBuffer.wrap(name.getBytes(StandardCharsets.UTF_8));
+			this.blocks = name == null ? null : blocksByName.get(name);
+			enter(block);
+		}
+
+		private void enter(int block) {
+			this.block = block;
+			if (block < 0 || block >= blockCount()) {
+				offset = end;
+				blockEnd = end;
+				return;
+			}
+			offset = blockOffsets[block];
+			blockEnd = block + 1 < blockCount() ? blockOffsets[block + 1] : end;
+		}
+
+		@Override
+		public boolean hasNext() {
+			try {
+				while (next == null) {
+					if (offset >= blockEnd) {
+						if (blockEnd >= end)
+							return false;
+						enter(blocks == null ? block + 1 : blocks.nextSetBit(block + 1));
+						continue;
+					}
+					next = read();
+				}
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public RecordedFrame next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			var frame = next;
+			next = null;
+			return frame;
+		}
+
+		/**
+		 * Reads the frame at the offset and advances past it.
+		 *
+		 * @return The frame or null when it is skipped.
+		 */
+		private RecordedFrame read() throws IOException {
+			var header = region(offset, Recorder.frameHeaderSize - 4);
+			long timestamp = header.getLong();
+			byte flags = header.get();
+			int nameLength = Short.toUnsignedInt(header.getShort());
+			long nameOffset = offset + Recorder.frameHeaderSize - 4;
+			int payloadLength = region(nameOffset + nameLength, 4).getInt();
+			long payloadOffset = nameOffset + nameLength + 4;
+			offset = payloadOffset + payloadLength;
+
+			if (timestamp < from)
+				return null;
+			var nameBuffer = region(nameOffset, nameLength);
+			if (nameBytes != null && !nameBuffer.equals(nameBytes))
+				return null;
+			var frameName = name != null ? name : StandardCharsets.UTF_8.decode(nameBuffer).toString();
+			return new RecordedFrame(timestamp, flags, frameName, region(payloadOffset, payloadLength), codec);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
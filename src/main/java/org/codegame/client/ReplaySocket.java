@@ -0,0 +1,92 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A socket that replays the events of a recording made with a {@link Recorder}
+ * instead of connecting to a server.
+ *
+ * Received frames go through the same decoding and dispatching as on a real
+ * connection, so listeners, dispatchers and metrics behave as they would live.
+ * Commands sent by listeners are discarded. Binary frames are decoded with the
+ * codec set with {@link #setCodec(EventCodec)}.
+ */
+public class ReplaySocket extends GameSocket {
+	private final Path recording;
+
+	/**
+	 * @param recording The file of the recording.
+	 */
+	public ReplaySocket(Path recording) {
+		super(new Api("localhost", false), null);
+		this.recording = recording;
+	}
+
+	/**
+	 * Replays all received events as fast as possible, e.g. to benchmark the
+	 * logic of a bot. Blocks until the callbacks of all events have returned.
+	 *
+	 * @throws IOException Thrown when the recording cannot be read.
+	 */
+	public void replay() throws IOException {
+		replay(false);
+	}
+
+	/**
+	 * Replays all received events. Blocks until the callbacks of all events have
+	 * returned, whichever dispatcher runs them, or until the thread is
+	 * interrupted. Afterwards the socket counts as closed, so {@link #listen()}
+	 * returns.
+	 *
+	 * @param realTime Whether to keep the time between events as it was recorded
+	 *                 instead of replaying them as fast as possible.
+	 * @throws IOException Thrown when the recording cannot be read.
+	 */
+	public void replay(boolean realTime) throws IOException {
+		startReplay();
+		try (var reader = new RecordingReader(recording)) {
+			long first = -1;
+			long start = 0;
+			var frames = reader.frames().iterator();
+			while (frames.hasNext()) {
+				var frame = frames.next();
+				if (frame.isOutbound())
+					continue;
+
+				if (realTime) {
+					if (first < 0) {
+						first = frame.getTimestamp();
+						start = System.nanoTime();
+					}
+					long wait;
+					while ((wait = frame.getTimestamp() - first - (System.nanoTime() - start)) > 0)
+						LockSupport.parkNanos(wait);
+				}
+				if (frame.isBinary())
+					onBinaryMessage(frame.getPayload());
+				else
+					onMessage(frame.getText());
+			}
+		} finally {
+			try {
+				awaitDispatched();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finish();
+		}
+	}
+
+	/**
+	 * Discards the command.
+	 *
+	 * @return A completed future.
+	 */
+	@Override
+	public <T> CompletableFuture<Void> sendAsync(String commandName, T data) {
+		return CompletableFuture.completedFuture(null);
+	}
+}
@@ -0,0 +1,120 @@
+package org.codegame.client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of restoring stored sessions with
+ * {@link GameClientPool#restoreSessions(int)}.
+ */
+public class RestoreReport {
+	/**
+	 * The outcome of restoring one session.
+	 */
+	public static class Result {
+		private final Session session;
+		private final GameSocket socket;
+		private final Throwable error;
+		private final boolean pruned;
+		private final Duration duration;
+
+		Result(Session session, GameSocket socket, Throwable error, boolean pruned, Duration duration) {
+			this.session = session;
+			this.socket = socket;
+			this.error = error;
+			this.pruned = pruned;
+			this.duration = duration;
+		}
+
+		/**
+		 * @return The stored session.
+		 */
+		public Session getSession() {
+			return session;
+		}
+
+		/**
+		 * @return The connected socket or null when restoring failed.
+		 */
+		public GameSocket getSocket() {
+			return socket;
+		}
+
+		/**
+		 * @return Why restoring failed or null when it succeeded.
+		 */
+		public Throwable getError() {
+			return error;
+		}
+
+		/**
+		 * @return Whether the server rejected the session, so it was removed from
+		 *         the session store.
+		 */
+		public boolean isPruned() {
+			return pruned;
+		}
+
+		/**
+		 * @return The time it took to restore the session.
+		 */
+		public Duration getDuration() {
+			return duration;
+		}
+	}
+
+	private final List<Result> results;
+	private final Duration duration;
+
+	RestoreReport(List<Result> results, Duration duration) {
+		this.results = Collections.unmodifiableList(results);
+		this.duration = duration;
+	}
+
+	/**
+	 * @return The outcome of every stored session.
+	 */
+	public List<Result> getResults() {
+		return results;
+	}
+
+	/**
+	 * @return The sockets of all restored sessions.
+	 */
+	public List<GameSocket> getSockets() {
+		var sockets = new ArrayList<GameSocket>();
+		for (var result : results) {
+			if (result.socket != null)
+				sockets.add(result.socket);
+		}
+		return sockets;
+	}
+
+	/**
+	 * @return The number of sessions that were removed because the server
+	 *         rejected them.
+	 */
+	public int getPrunedCount() {
+		int count = 0;
+		for (var result : results) {
+			if (result.pruned)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return The time it took to restore all sessions.
+	 */
+	public Duration getDuration() {
+		return duration;
+	}
+
+	@Override
+	public String toString() {
+		return "RestoreReport[sessions=" + results.size() + ", restored=" + getSockets().size() + ", pruned="
+				+ getPrunedCount() + ", duration=" + duration + "]";
+	}
+}
@@ -0,0 +1,16 @@
+package org.codegame.client;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Runs the timers of all sockets, e.g. reconnect delays. Tasks must be short
+ * and must not block.
+ */
+class Scheduler {
+	static final ScheduledExecutorService instance = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		var thread = new Thread(runnable, "codegame-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+}
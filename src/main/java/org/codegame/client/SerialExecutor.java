@@ -0,0 +1,46 @@
+package org.codegame.client;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one after another on an underlying executor. At most one task of
+ * this executor runs at any time.
+ */
+class SerialExecutor implements Executor {
+	private final Executor executor;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		tasks.add(task);
+		schedule();
+	}
+
+	private void schedule() {
+		if (!tasks.isEmpty() && running.compareAndSet(false, true))
+			executor.execute(this::drain);
+	}
+
+	private void drain() {
+		Runnable task;
+		try {
+			while ((task = tasks.poll()) != null) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			running.set(false);
+			schedule();
+		}
+	}
+}
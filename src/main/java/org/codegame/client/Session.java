@@ -1,14 +1,6 @@
 package org.codegame.client;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URLEncoder;
-
-import org.apache.commons.io.FilenameUtils;
 
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
@@ -17,8 +9,6 @@ import com.google.gson.annotations.SerializedName;
  * Represents a CodeGame session.
  */
 public class Session {
-    private static final String gamesPath = FilenameUtils.concat(Dirs.DataHome(), "codegame/games");
-
     @Expose(serialize = false)
     String gameURL = "";
     @Expose(serialize = false)
@@ -54,7 +44,7 @@ public class Session {
     }
 
     /**
-     * Loads a session from disk.
+     * Loads a session from the default session store.
      *
      * @param gameURL  The URL of the game.
      * @param username The username of the player.
@@ -62,61 +52,28 @@ public class Session {
      * @throws IOException Thrown when the session doesn't exist or is invalid.
      */
     public static Session load(String gameURL, String username) throws IOException {
-        var reader = new InputStreamReader(new FileInputStream(
-                FilenameUtils.concat(gamesPath, URLEncoder.encode(gameURL, "UTF-8") + "/" + username + ".json")));
-        try {
-            var session = Api.json.fromJson(reader, Session.class);
-            if (session.gameId == null || session.gameId.isEmpty() || session.playerId == null
-                    || session.playerId.isEmpty()
-                    || session.playerSecret == null || session.playerSecret.isEmpty()) {
-                throw new IOException("Incomplete session file.");
-            }
-            session.gameURL = gameURL;
-            session.username = username;
-            return session;
-        } finally {
-            reader.close();
-        }
+        return FileSessionStore.getDefault().load(gameURL, username);
     }
 
     /**
-     * Writes the session to disk.
+     * Saves the session in the default session store. The session is written to
+     * disk shortly afterwards.
      *
-     * @throws IOException Thrown when the session file cannot be written.
+     * @throws IOException Thrown when the session cannot be stored.
      * @throws Exception   Thrown when one or more fields of the session are empty.
      */
     public void save() throws IOException, Exception {
-        if (gameURL.isEmpty() || username.isEmpty() || gameId.isEmpty() || playerId.isEmpty()
-                || playerSecret.isEmpty()) {
-            throw new Exception("Incomplete session file.");
-        }
-        var dir = new File(FilenameUtils.concat(gamesPath, URLEncoder.encode(gameURL, "UTF-8")));
-        dir.mkdirs();
-        var writer = new BufferedWriter(
-                new FileWriter(FilenameUtils.concat(dir.getAbsolutePath(), username + ".json")));
-        try {
-            var data = Api.json.toJson(this);
-            writer.write(data);
-        } finally {
-            writer.close();
-        }
+        FileSessionStore.getDefault().save(this);
     }
 
     /**
-     * Deletes the session file.
+     * Removes the session from the default session store.
      */
     public void remove() {
         try {
             if (gameURL.isEmpty())
                 return;
-
-            var dir = new File(FilenameUtils.concat(gamesPath, URLEncoder.encode(gameURL, "UTF-8")));
-            if (!dir.isDirectory())
-                return;
-            var file = new File(FilenameUtils.concat(dir.getAbsolutePath(), username + ".json"));
-            file.delete();
-            if (dir.list().length == 0)
-                dir.delete();
+            FileSessionStore.getDefault().remove(gameURL, username);
         } catch (Exception e) {
         }
     }
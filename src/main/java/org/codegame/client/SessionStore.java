@@ -0,0 +1,57 @@
+package org.codegame.client;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Persists the sessions of players so that they can reconnect later.
+ *
+ * Implementations must be thread-safe. The default store is
+ * {@link FileSessionStore#getDefault()}.
+ */
+public interface SessionStore {
+	/**
+	 * Loads a session.
+	 *
+	 * @param gameURL  The URL of the game.
+	 * @param username The username of the player.
+	 * @return The session.
+	 * @throws IOException Thrown when the session doesn't exist or cannot be read.
+	 */
+	Session load(String gameURL, String username) throws IOException;
+
+	/**
+	 * Stores a session, replacing an earlier session of the same player. The
+	 * session may be written later, see {@link #flush()}.
+	 *
+	 * @param session The session.
+	 * @throws IllegalArgumentException Thrown when one or more fields of the
+	 *                                  session are empty.
+	 * @throws IOException              Thrown when the session cannot be stored.
+	 */
+	void save(Session session) throws IOException;
+
+	/**
+	 * Removes a session if it exists.
+	 *
+	 * @param gameURL  The URL of the game.
+	 * @param username The username of the player.
+	 * @throws IOException Thrown when the session cannot be removed.
+	 */
+	void remove(String gameURL, String username) throws IOException;
+
+	/**
+	 * @param gameURL The URL of the game.
+	 * @return All sessions stored for the game URL.
+	 * @throws IOException Thrown when the sessions cannot be read.
+	 */
+	List<Session> list(String gameURL) throws IOException;
+
+	/**
+	 * Writes all pending changes. Does nothing by default.
+	 *
+	 * @throws IOException Thrown when writing fails.
+	 */
+	default void flush() throws IOException {
+	}
+}
@@ -0,0 +1,48 @@
+package org.codegame.client;
+
+/**
+ * A handle to a registered event callback. Closing the subscription removes
+ * the callback, so it can be used with try-with-resources.
+ */
+public final class Subscription implements AutoCloseable {
+	private final ListenerRegistry registry;
+	private final String eventName;
+	private final long id;
+
+	Subscription(ListenerRegistry registry, String eventName, long id) {
+		this.registry = registry;
+		this.eventName = eventName;
+		this.id = id;
+	}
+
+	/**
+	 * Removes the callback. Does nothing when it has already been removed.
+	 *
+	 * @return Whether the callback was still registered.
+	 */
+	public boolean cancel() {
+		return registry.remove(eventName, id);
+	}
+
+	/**
+	 * Removes the callback. Same as {@link #cancel()}.
+	 */
+	@Override
+	public void close() {
+		cancel();
+	}
+
+	/**
+	 * @return The name of the event.
+	 */
+	public String getEventName() {
+		return eventName;
+	}
+
+	/**
+	 * @return The ID of the callback. IDs are unique per socket.
+	 */
+	public long getId() {
+		return id;
+	}
+}
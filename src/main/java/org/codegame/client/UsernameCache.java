@@ -0,0 +1,106 @@
+package org.codegame.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Caches the usernames of players by their ID.
+ *
+ * The cache holds at most a fixed number of entries and evicts the least
+ * recently used one when it is full. Concurrent lookups of the same missing
+ * player share a single request.
+ */
+class UsernameCache {
+	private final Function<String, CompletableFuture<String>> fetcher;
+	private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+	private final LinkedHashMap<String, String> usernames;
+	private volatile int maxSize;
+
+	/**
+	 * @param fetcher Requests the username of a player from the server.
+	 * @param maxSize The maximum number of cached usernames.
+	 */
+	UsernameCache(Function<String, CompletableFuture<String>> fetcher, int maxSize) {
+		this.fetcher = fetcher;
+		this.maxSize = maxSize;
+		this.usernames = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > UsernameCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @return The cached username or a pending request for it.
+	 */
+	CompletableFuture<String> get(String playerId) {
+		var cached = getCached(playerId);
+		if (cached != null)
+			return CompletableFuture.completedFuture(cached);
+
+		var pending = new CompletableFuture<String>();
+		var existing = inFlight.putIfAbsent(playerId, pending);
+		if (existing != null)
+			return existing;
+
+		CompletableFuture<String> request;
+		try {
+			request = fetcher.apply(playerId);
+		} catch (RuntimeException e) {
+			request = CompletableFuture.failedFuture(e);
+		}
+		request.whenComplete((username, e) -> {
+			if (e == null)
+				put(playerId, username);
+			inFlight.remove(playerId, pending);
+			if (e == null)
+				pending.complete(username);
+			else
+				pending.completeExceptionally(e);
+		});
+		return pending;
+	}
+
+	/**
+	 * @return The cached username or null.
+	 */
+	synchronized String getCached(String playerId) {
+		return usernames.get(playerId);
+	}
+
+	synchronized void put(String playerId, String username) {
+		if (username != null)
+			usernames.put(playerId, username);
+	}
+
+	synchronized void putAll(Map<String, String> players) {
+		for (var player : players.entrySet()) {
+			put(player.getKey(), player.getValue());
+		}
+	}
+
+	synchronized void remove(String playerId) {
+		usernames.remove(playerId);
+	}
+
+	synchronized void clear() {
+		usernames.clear();
+	}
+
+	synchronized int size() {
+		return usernames.size();
+	}
+
+	synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		var iterator = usernames.entrySet().iterator();
+		while (usernames.size() > maxSize && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+}
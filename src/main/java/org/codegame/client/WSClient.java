@@ -2,49 +2,340 @@ package org.codegame.client;
 
 import java.net.http.WebSocket;
 import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class WSClient implements WebSocket.Listener {
+    static final int ABNORMAL_CLOSURE = 1006;
+
+    @FunctionalInterface
+    interface OnOpenCallback {
+        /**
+         * Called before the first message is requested.
+         */
+        void onOpen(WebSocket webSocket);
+    }
+
     @FunctionalInterface
     interface OnMessageCallback {
-        void onMessage(String message);
+        void onMessage(CharSequence message);
+    }
+
+    @FunctionalInterface
+    interface OnBinaryMessageCallback {
+        void onBinaryMessage(ByteBuffer message);
     }
 
     @FunctionalInterface
     interface OnCloseCallback {
-        void onClose();
+        /**
+         * @param statusCode The close code sent by the server or 1006 when the
+         *                   connection failed.
+         */
+        void onClose(int statusCode);
     }
 
+    private OnOpenCallback onOpen;
     private OnMessageCallback onMessage;
+    private OnBinaryMessageCallback onBinaryMessage;
     private OnCloseCallback onClose;
 
+    private final int maxInFlight;
+    private final int maxMessageSize;
+    private final StringBuilder fragments = new StringBuilder();
+    private ByteBuffer binaryFragments = ByteBuffer.allocate(0);
+    private boolean discarding;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean stalled = new AtomicBoolean();
+    // Set while a thread waits in awaitIdle(), so release() only notifies then.
+    private volatile boolean awaitingIdle;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile WebSocket webSocket;
+
+    private Duration heartbeatInterval;
+    private int maxMissedPongs;
+    private LatencyHistogram latency;
+    private volatile ScheduledFuture<?> heartbeat;
+    private volatile long pingSentAt;
+    private volatile boolean awaitingPong;
+    // Reset by the websocket thread and counted by the scheduler thread.
+    private final AtomicInteger missedPongs = new AtomicInteger();
+    // Whether a frame has been requested and not delivered yet. Pongs are only
+    // delivered when there is demand.
+    private volatile boolean demand;
+
     public WSClient(OnMessageCallback onMessage, OnCloseCallback onClose) {
+        this((WebSocket webSocket) -> {
+        }, onMessage, (ByteBuffer message) -> {
+        }, onClose, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxInFlight    The maximum number of messages whose callbacks may
+     *                       still be running before no further messages are read.
+     * @param maxMessageSize The maximum number of characters of a text message or
+     *                       bytes of a binary message. Larger messages close the
+     *                       connection.
+     */
+    public WSClient(OnOpenCallback onOpen, OnMessageCallback onMessage, OnBinaryMessageCallback onBinaryMessage,
+            OnCloseCallback onClose, int maxInFlight, int maxMessageSize) {
+        this.onOpen = onOpen;
         this.onMessage = onMessage;
+        this.onBinaryMessage = onBinaryMessage;
         this.onClose = onClose;
+        this.maxInFlight = maxInFlight;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Sends a ping in every interval once the connection is open. The connection
+     * is aborted and reported as closed with 1006 when no frame arrives for
+     * {@code maxMissedPongs} consecutive pings. Pings are not counted while
+     * reading is paused, because their pongs cannot be delivered then.
+     *
+     * @param latency Records the round-trip time of every answered ping.
+     */
+    void setHeartbeat(Duration interval, int maxMissedPongs, LatencyHistogram latency) {
+        this.heartbeatInterval = interval;
+        this.maxMissedPongs = maxMissedPongs;
+        this.latency = latency;
+    }
+
+    /**
+     * Marks a message as in flight until {@link #release()} is called.
+     *
+     * @return The number of messages in flight, including this one.
+     */
+    int acquire() {
+        return inFlight.incrementAndGet();
+    }
+
+    /**
+     * Marks a message as handled and resumes reading if it was paused.
+     *
+     * @return The number of messages that are still in flight.
+     */
+    int release() {
+        int remaining = inFlight.decrementAndGet();
+        if (remaining < maxInFlight && stalled.compareAndSet(true, false))
+            request(webSocket);
+        if (remaining == 0 && awaitingIdle) {
+            synchronized (inFlight) {
+                inFlight.notifyAll();
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Blocks until no message is in flight.
+     */
+    void awaitIdle() throws InterruptedException {
+        synchronized (inFlight) {
+            awaitingIdle = true;
+            try {
+                while (inFlight.get() > 0)
+                    inFlight.wait();
+            } finally {
+                awaitingIdle = false;
+            }
+        }
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket) {
+        this.webSocket = webSocket;
+        onOpen.onOpen(webSocket);
+        if (heartbeatInterval != null) {
+            long interval = heartbeatInterval.toNanos();
+            heartbeat = Scheduler.instance.scheduleAtFixedRate(this::ping, interval, interval, TimeUnit.NANOSECONDS);
+        }
+        request(webSocket);
+    }
+
+    @Override
+    public CompletionStage<?> onPing(WebSocket webSocket, ByteBuffer message) {
+        // The pong is sent by the websocket implementation.
+        frameReceived();
+        request(webSocket);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+        frameReceived();
+        // Pongs that answer an earlier ping still prove that the connection is
+        // alive, but only the latest one yields a round-trip time.
+        if (latency != null && message.remaining() == Long.BYTES
+                && message.getLong(message.position()) == pingSentAt) {
+            latency.record((System.nanoTime() - pingSentAt) / 1000);
+        }
+        awaitingPong = false;
+        request(webSocket);
+        return null;
     }
 
     @Override
     public CompletionStage<?> onText(WebSocket webSocket, CharSequence message, boolean last) {
-        onMessage.onMessage(message.toString());
-        webSocket.request(1);
+        frameReceived();
+        if (discarding) {
+            discarding = !last;
+            request(webSocket);
+            return null;
+        }
+
+        if (fragments.length() + message.length() > maxMessageSize) {
+            fragments.setLength(0);
+            discarding = !last;
+            webSocket.sendClose(1009, "Message too big.");
+            request(webSocket);
+            return null;
+        }
+
+        if (!last) {
+            // The buffer keeps its capacity, so it only grows until it fits the
+            // largest message.
+            fragments.append(message);
+            request(webSocket);
+            return null;
+        }
+
+        if (fragments.length() == 0) {
+            onMessage.onMessage(message);
+        } else {
+            fragments.append(message);
+            try {
+                onMessage.onMessage(fragments);
+            } finally {
+                fragments.setLength(0);
+            }
+        }
+        requestNext(webSocket);
         return null;
     }
 
     @Override
     public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer bytes, boolean last) {
-        webSocket.request(1);
+        frameReceived();
+        if (discarding) {
+            discarding = !last;
+            request(webSocket);
+            return null;
+        }
+
+        if ((long) binaryFragments.position() + bytes.remaining() > maxMessageSize) {
+            binaryFragments.clear();
+            discarding = !last;
+            webSocket.sendClose(1009, "Message too big.");
+            request(webSocket);
+            return null;
+        }
+
+        if (!last) {
+            appendBinary(bytes);
+            request(webSocket);
+            return null;
+        }
+
+        if (binaryFragments.position() == 0) {
+            onBinaryMessage.onBinaryMessage(bytes);
+        } else {
+            appendBinary(bytes);
+            binaryFragments.flip();
+            try {
+                onBinaryMessage.onBinaryMessage(binaryFragments);
+            } finally {
+                binaryFragments.clear();
+            }
+        }
+        requestNext(webSocket);
         return null;
     }
 
     @Override
-    public CompletionStage<?> onClose(WebSocket arg0, int arg1, String arg2) {
-        onClose.onClose();
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        if (closed.compareAndSet(false, true)) {
+            stopHeartbeat();
+            onClose.onClose(statusCode);
+        }
         return null;
     }
 
     @Override
     public void onError(WebSocket webSocket, Throwable throwable) {
         throwable.printStackTrace();
-        onClose.onClose();
+        if (closed.compareAndSet(false, true)) {
+            stopHeartbeat();
+            onClose.onClose(ABNORMAL_CLOSURE);
+        }
+    }
+
+    private void ping() {
+        // An exception would cancel all further runs of the heartbeat.
+        try {
+            // Without demand a pong cannot be delivered, e.g. while reading is paused
+            // for slow callbacks, so it does not count as missed.
+            if (awaitingPong && demand && missedPongs.incrementAndGet() >= maxMissedPongs) {
+                // A half-open connection never reports an error on its own, so it has
+                // to be torn down here for the socket to notice.
+                webSocket.abort();
+                if (closed.compareAndSet(false, true)) {
+                    stopHeartbeat();
+                    onClose.onClose(ABNORMAL_CLOSURE);
+                }
+                return;
+            }
+            long now = System.nanoTime();
+            pingSentAt = now;
+            awaitingPong = true;
+            webSocket.sendPing(ByteBuffer.allocate(Long.BYTES).putLong(0, now));
+        } catch (RuntimeException e) {
+            System.err.println("ERROR: Failed to send a ping: " + e);
+        }
+    }
+
+    /**
+     * Any frame proves that the connection is alive and consumes the demand.
+     */
+    private void frameReceived() {
+        demand = false;
+        missedPongs.set(0);
+    }
+
+    private void request(WebSocket webSocket) {
+        demand = true;
+        webSocket.request(1);
+    }
+
+    private void stopHeartbeat() {
+        if (heartbeat != null)
+            heartbeat.cancel(false);
+    }
+
+    private void appendBinary(ByteBuffer bytes) {
+        if (binaryFragments.remaining() < bytes.remaining()) {
+            // Like the text buffer, the binary buffer is kept and only grows.
+            var grown = ByteBuffer.allocate(
+                    Math.max(binaryFragments.capacity() * 2, binaryFragments.position() + bytes.remaining()));
+            binaryFragments.flip();
+            grown.put(binaryFragments);
+            binaryFragments = grown;
+        }
+        binaryFragments.put(bytes);
+    }
+
+    private void requestNext(WebSocket webSocket) {
+        if (inFlight.get() < maxInFlight) {
+            request(webSocket);
+            return;
+        }
+        stalled.set(true);
+        // A release between the check and setting the flag would not have seen it.
+        if (inFlight.get() < maxInFlight && stalled.compareAndSet(true, false))
+            request(webSocket);
     }
 }
@@ -0,0 +1,57 @@
+package org.codegame.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+
+class CborCodecTest {
+	private final EventCodec codec = EventCodec.cbor();
+
+	@SuppressWarnings("unchecked")
+	private <T> T roundTrip(T data, Class<T> type) throws IOException {
+		TypeAdapter<?> adapter = Api.json().getAdapter(type);
+		var event = codec.decodeBinary(codec.encodeBinary("e", data), (name) -> adapter);
+		return (T) event.data;
+	}
+
+	@Test
+	void bigIntegersRoundTrip() throws IOException {
+		for (var text : new String[] { "0", "-1", "18446744073709551615", "-18446744073709551616",
+				"123456789012345678901", "-123456789012345678901234567890" }) {
+			var value = new BigInteger(text);
+			assertEquals(value, roundTrip(value, BigInteger.class));
+		}
+	}
+
+	@Test
+	void bigDecimalsRoundTrip() throws IOException {
+		for (var text : new String[] { "1.50", "-0.1", "3.14159265358979323846264338327950288",
+				"123456789012345678901.5", "1E+100", "1E-400" }) {
+			var value = new BigDecimal(text);
+			assertEquals(value, roundTrip(value, BigDecimal.class));
+		}
+	}
+
+	@Test
+	void jsonElementsRoundTrip() throws IOException {
+		var json = JsonParser.parseString("{\"max\":18446744073709551615,\"big\":-123456789012345678901,"
+				+ "\"pi\":3.14159265358979323846264338327950288,\"half\":1.5,\"tenth\":0.1,\"small\":-7,"
+				+ "\"list\":[1e-7,340282366920938463463374607431768211456]}");
+		var result = roundTrip(json, JsonElement.class).getAsJsonObject();
+		for (var name : new String[] { "max", "big", "pi", "half", "tenth", "small" })
+			assertEquals(new BigDecimal(json.getAsJsonObject().get(name).getAsString()),
+					result.get(name).getAsBigDecimal(), name);
+		var list = result.getAsJsonArray("list");
+		// Written as a double, which keeps the value but not the notation.
+		assertEquals(0, new BigDecimal("1e-7").compareTo(list.get(0).getAsBigDecimal()));
+		assertEquals(new BigInteger("340282366920938463463374607431768211456"), list.get(1).getAsBigInteger());
+	}
+}
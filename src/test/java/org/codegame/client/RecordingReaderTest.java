@@ -0,0 +1,67 @@
+package org.codegame.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RecordingReaderTest {
+	private static final int framesPerThread = 3 * RecordingReader.blockSize;
+
+	@TempDir
+	Path dir;
+
+	private static List<String> describe(Stream<RecordedFrame> frames) {
+		return frames.map((frame) -> frame.getTimestamp() + " " + frame.isOutbound() + " " + frame.getName())
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	void seeksInInterleavedFrames() throws IOException, InterruptedException {
+		var file = dir.resolve("recording");
+		try (var recorder = new Recorder(file, 4 * framesPerThread)) {
+			// Events are received and commands sent on different threads, as on a live
+			// connection.
+			var inbound = new Thread(() -> {
+				for (int i = 0; i < framesPerThread; i++) {
+					recorder.recordText(false, "event", "{\"name\":\"event\",\"data\":" + i + "}");
+					Thread.yield();
+				}
+			});
+			var outbound = new Thread(() -> {
+				for (int i = 0; i < framesPerThread; i++) {
+					recorder.recordBinary(true, "command", ByteBuffer.allocate(4).putInt(0, i));
+					Thread.yield();
+				}
+			});
+			inbound.start();
+			outbound.start();
+			inbound.join();
+			outbound.join();
+			assertEquals(0, recorder.getDroppedFrames());
+		}
+
+		try (var reader = new RecordingReader(file)) {
+			assertEquals(2 * framesPerThread, reader.getFrameCount());
+			var all = reader.frames().collect(Collectors.toList());
+			for (int i = 1; i < all.size(); i++)
+				assertTrue(all.get(i - 1).getTimestamp() <= all.get(i).getTimestamp(), "frame " + i);
+
+			for (int i = 0; i < all.size(); i += RecordingReader.blockSize / 3) {
+				long from = all.get(i).getTimestamp();
+				assertEquals(describe(all.stream().filter((frame) -> frame.getTimestamp() >= from)),
+						describe(reader.frames(Duration.ofNanos(from))), "from " + from);
+			}
+			assertEquals(List.of(), describe(reader.frames(reader.getDuration().plusNanos(1))));
+		}
+	}
+}